@@ -0,0 +1,45 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Gives benchmarks access to {@link Instrumentation} by loading itself as an agent into the benchmark JVM, the same way
+ * ClassDumperTest does.
+ */
+public class BenchmarkAgent {
+    private static volatile Instrumentation instrumentation;
+
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        BenchmarkAgent.instrumentation = instrumentation;
+    }
+
+    public static synchronized Instrumentation getInstrumentation() throws IOException {
+        if (instrumentation == null) {
+            File manifestJar = createManifest();
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        }
+        return instrumentation;
+    }
+
+    @SuppressWarnings("ConcatenationWithEmptyString")
+    private static File createManifest() throws IOException {
+        String manifestContent = String.format("" +
+                "Manifest-Version: 1.0%n" +
+                "Launcher-Agent-Class: %1$s%n" +
+                "Can-Retransform-Classes: true%n", BenchmarkAgent.class.getName());
+
+        File jarFile = File.createTempFile("benchmark-manifest", ".jar");
+        jarFile.deleteOnExit();
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+            jar.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            jar.write(manifestContent.getBytes(StandardCharsets.UTF_8));
+        }
+        return jarFile;
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Filters 100k class names with {@link Options#getFilterPredicate()} and with the stream based predicate it replaced.
+ * Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassNameFilterBenchmark {
+    private static final String[] PACKAGES = {"java.lang.", "java.util.concurrent.", "sun.nio.ch.", "jdk.internal.misc.", "com.sun.proxy.", "com.example.app.", "org.springframework.core."};
+
+    @Param({"java\\..*,sun\\..*,jdk\\..*,com\\.sun\\..*", "com\\.example\\..*Service,.*\\$Proxy[0-9]+"})
+    public String filters;
+
+    private String[] classNames;
+    private Predicate<String> compiled;
+    private Predicate<String> legacy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParserException {
+        classNames = new String[100_000];
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = PACKAGES[i % PACKAGES.length] + "Class" + i + (i % 3 == 0 ? "Service" : "");
+        }
+        List<String> args = new ArrayList<>(List.of("-d", "target/benchmark.jar", "-x"));
+        Stream.of(filters.split(",")).forEach(filter -> args.addAll(List.of("-f", filter)));
+        args.add("1337");
+        compiled = new Options(args.toArray(new String[0])).getFilterPredicate();
+        List<Pattern> patterns = Stream.of(filters.split(",")).map(Pattern::compile).collect(Collectors.toList());
+        legacy = s -> patterns.stream().anyMatch(pattern -> pattern.asMatchPredicate().test(s)) ^ true;
+    }
+
+    @Benchmark
+    public int compiled() {
+        return count(compiled);
+    }
+
+    @Benchmark
+    public int legacy() {
+        return count(legacy);
+    }
+
+    private int count(Predicate<String> predicate) {
+        int matches = 0;
+        for (String className : classNames) {
+            if (predicate.test(className)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
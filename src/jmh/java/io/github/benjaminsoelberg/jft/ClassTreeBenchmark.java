@@ -0,0 +1,65 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a class tree of synthetic classes spread over a number of class loaders, and walks it the way the report and
+ * jar writers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassTreeBenchmark {
+
+    @Param({"10000"})
+    public int classes;
+
+    @Param({"1", "100"})
+    public int loaders;
+
+    private Class<?>[] defined;
+    private ByteBuffer bytecode;
+    private ClassTree tree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Class<?>> all = new ArrayList<>();
+        for (int i = 0; i < loaders; i++) {
+            all.addAll(Arrays.asList(SyntheticClasses.define(classes / loaders, new SyntheticClasses.Loader("loader" + i))));
+        }
+        defined = all.toArray(new Class<?>[0]);
+        bytecode = ByteBuffer.wrap(SyntheticClasses.toBytecode("com.example.Main"));
+        tree = add();
+    }
+
+    @Benchmark
+    public ClassTree add() {
+        ClassTree tree = new ClassTree();
+        for (Class<?> clazz : defined) {
+            tree.add(clazz, bytecode);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public void getClasses(Blackhole blackhole) {
+        walk(tree.getRoot(), blackhole);
+    }
+
+    private void walk(ClassTree.Node node, Blackhole blackhole) {
+        // Both the report and the jar writer walks the tree
+        blackhole.consume(node.getName());
+        node.forEachClass((clazz, bytes) -> blackhole.consume(clazz.getName()));
+        node.getChildren().forEach(child -> walk(child, blackhole));
+    }
+}
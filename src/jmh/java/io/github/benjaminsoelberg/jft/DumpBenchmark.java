@@ -0,0 +1,55 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps synthetic classes spread over a number of class loaders, end to end through {@link ClassDumper}, from the
+ * discovery of the classes to the finished jar. Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-exports=java.instrument/sun.instrument=ALL-UNNAMED", "-Xmx2g"})
+public class DumpBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classes;
+
+    @Param({"1", "10"})
+    public int loaders;
+
+    @Param({"false", "true"})
+    public boolean stream;
+
+    private Instrumentation instrumentation;
+    private File destination;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        instrumentation = BenchmarkAgent.getInstrumentation();
+        destination = File.createTempFile("dump-benchmark", ".jar");
+        destination.deleteOnExit();
+        for (int i = 0; i < loaders; i++) {
+            SyntheticClasses.define(classes / loaders, new SyntheticClasses.Loader("loader" + i));
+        }
+    }
+
+    @Benchmark
+    public void dump() throws Exception {
+        List<String> args = new ArrayList<>(List.of("-d", destination.getPath(), "-s", "-p", "-f", "jft\\.synthetic\\..*"));
+        if (stream) {
+            args.add(Options.STREAM_OPTION);
+        }
+        args.add("1337");
+        new ClassDumper(Utils.encodeArgs(args.toArray(new String[0])), instrumentation);
+    }
+}
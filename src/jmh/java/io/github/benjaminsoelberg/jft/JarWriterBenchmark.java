@@ -0,0 +1,59 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes the class files of the java.base module to a jar, discarding the output, to measure compression throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JarWriterBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"0", "1", "6"})
+    public int level;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> classes = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(jrt.getPath("/modules/java.base"))) {
+            paths = walk.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            names.add("[bootloader]" + path.toString().substring("/modules/java.base".length()));
+            classes.add(Files.readAllBytes(path));
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (JarWriter jar = new JarWriter(OutputStream.nullOutputStream(), threads, level)) {
+            for (int i = 0; i < names.size(); i++) {
+                jar.write(names.get(i), classes.get(i));
+            }
+        }
+    }
+}
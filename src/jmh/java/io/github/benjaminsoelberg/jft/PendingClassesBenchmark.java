@@ -0,0 +1,60 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks all classes through the batch slicing and the transformer bookkeeping, once with {@link PendingClasses} and
+ * once with the ArrayList based bookkeeping it replaced. The time per operation should grow linearly with the number of
+ * classes for the former and quadratic for the latter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PendingClassesBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int count;
+
+    private Class<?>[] classes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        classes = SyntheticClasses.define(count);
+    }
+
+    @Benchmark
+    public int pendingClasses() {
+        PendingClasses pending = new PendingClasses(classes);
+        int dumped = 0;
+        while (pending.hasNextBatch()) {
+            for (Class<?> clazz : pending.nextBatch(ClassDumper.DUMP_BATCH_SIZE)) {
+                if (pending.remove(clazz)) {
+                    dumped++;
+                }
+            }
+        }
+        return dumped;
+    }
+
+    @Benchmark
+    public int arrayList() {
+        List<Class<?>> pending = new ArrayList<>(Arrays.asList(classes));
+        int dumped = 0;
+        while (!pending.isEmpty()) {
+            for (Class<?> clazz : pending.subList(0, Math.min(ClassDumper.DUMP_BATCH_SIZE, pending.size())).toArray(new Class[0])) {
+                if (pending.contains(clazz) && pending.remove(clazz)) {
+                    dumped++;
+                }
+            }
+        }
+        return dumped;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.security.ProtectionDomain;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the pause of retransforming a single batch of synthetic classes, with a transformer handing the bytecode over
+ * to a queue drained by another thread like the agent does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.instrument/sun.instrument=ALL-UNNAMED")
+public class RetransformBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    private Instrumentation instrumentation;
+    private Class<?>[] batch;
+    private ClassFileTransformer transformer;
+    private Thread drainer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        instrumentation = BenchmarkAgent.getInstrumentation();
+        batch = SyntheticClasses.define(batchSize);
+
+        BlockingQueue<CapturedClass> captures = new ArrayBlockingQueue<>(ClassDumper.CAPTURE_QUEUE_SIZE);
+        drainer = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    captures.take();
+                }
+            } catch (InterruptedException ignored) {
+                // Benchmark is over
+            }
+        }, "benchmark-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+
+        transformer = new ClassFileTransformer() {
+            @Override
+            public byte[] transform(Module module, ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                if (classBeingRedefined != null) {
+                    try {
+                        captures.put(new CapturedClass(classBeingRedefined, loader, className, protectionDomain, classfileBuffer));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return null;
+            }
+        };
+        instrumentation.addTransformer(transformer, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        instrumentation.removeTransformer(transformer);
+        drainer.interrupt();
+    }
+
+    @Benchmark
+    public void retransformBatch() throws UnmodifiableClassException {
+        instrumentation.retransformClasses(batch);
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans 1000 synthetic classes for a number of signatures with {@link SignatureScanner}, and with a naive search for
+ * each signature in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureScannerBenchmark {
+
+    @Param({"10", "1000"})
+    public int signatures;
+
+    private byte[][] classes;
+    private List<byte[]> patterns;
+    private SignatureScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        classes = new byte[1000][];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = SyntheticClasses.toBytecode("com.example.app.Class" + i);
+        }
+        List<String> names = new ArrayList<>();
+        patterns = new ArrayList<>();
+        for (int i = 0; i < signatures; i++) {
+            // Only every hundredth signature is found
+            String name = i % 100 == 0 ? "com/example/app/Class" + i : "http://ioc" + i + ".example.invalid/";
+            names.add(name);
+            patterns.add(Utils.fromUtf8String(name));
+        }
+        scanner = new SignatureScanner(names, patterns);
+    }
+
+    @Benchmark
+    public int automaton() {
+        int hits = 0;
+        for (byte[] bytecode : classes) {
+            hits += scanner.scan(bytecode).length;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int naive() {
+        int hits = 0;
+        for (byte[] bytecode : classes) {
+            for (byte[] pattern : patterns) {
+                if (indexOf(bytecode, pattern) >= 0) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Generates empty classes on the fly, allowing benchmarks to work with an arbitrary number of real classes.
+ */
+public final class SyntheticClasses {
+
+    private SyntheticClasses() {
+    }
+
+    /**
+     * Defines count classes named jft.synthetic.C0, jft.synthetic.C1 and so on in a new class loader.
+     *
+     * @param count number of classes to define
+     * @return the classes in definition order
+     */
+    public static Class<?>[] define(int count) {
+        return define(count, new Loader("synthetic"));
+    }
+
+    /**
+     * Defines count classes named jft.synthetic.C0, jft.synthetic.C1 and so on in the given class loader.
+     *
+     * @param count  number of classes to define
+     * @param loader to define the classes in
+     * @return the classes in definition order
+     */
+    public static Class<?>[] define(int count, Loader loader) {
+        Class<?>[] classes = new Class<?>[count];
+        for (int i = 0; i < count; i++) {
+            String name = "jft.synthetic.C" + i;
+            classes[i] = loader.define(name, toBytecode(name));
+        }
+        return classes;
+    }
+
+    /**
+     * Creates the bytecode of an empty public class without any constructors, fields or methods.
+     *
+     * @param javaClassName name of the class like foo.bar.Baz
+     * @return the class file
+     */
+    public static byte[] toBytecode(String javaClassName) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // Minor version
+            out.writeShort(52); // Major version, Java 8
+            out.writeShort(5); // Constant pool count + 1
+            out.writeByte(1); // #1 Utf8
+            out.writeUTF(Utils.toNativeClassName(javaClassName));
+            out.writeByte(7); // #2 Class #1
+            out.writeShort(1);
+            out.writeByte(1); // #3 Utf8
+            out.writeUTF("java/lang/Object");
+            out.writeByte(7); // #4 Class #3
+            out.writeShort(3);
+            out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(2); // This class
+            out.writeShort(4); // Super class
+            out.writeShort(0); // Interfaces
+            out.writeShort(0); // Fields
+            out.writeShort(0); // Methods
+            out.writeShort(0); // Attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static final class Loader extends ClassLoader {
+        public Loader(String name) {
+            super(name, SyntheticClasses.class.getClassLoader());
+        }
+
+        public Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
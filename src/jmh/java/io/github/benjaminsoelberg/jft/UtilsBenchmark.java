@@ -0,0 +1,41 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the agent command line and hex conversion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+    private final String[] args = {"-v", "-d", "/tmp/dump.jar", "-f", "java\\..*", "-f", "sun\\..*", "-f", "jdk\\..*", "-x", "1337"};
+    private final String encodedArgs = Utils.encodeArgs(args);
+    private final byte[] hash = Utils.sha256(Utils.fromUtf8String("hash"));
+    private final byte[] bytecode = SyntheticClasses.toBytecode("com.example.Main");
+
+    @Benchmark
+    public String encodeArgs() {
+        return Utils.encodeArgs(args);
+    }
+
+    @Benchmark
+    public String[] decodeArgs() {
+        return Utils.decodeArgs(encodedArgs);
+    }
+
+    @Benchmark
+    public String toHexHash() {
+        return Utils.toHex(hash);
+    }
+
+    @Benchmark
+    public String toHexBytecode() {
+        return Utils.toHex(bytecode);
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many classes are retransformed at a time.
+ * <p>
+ * Without a pause budget the batch size is fixed. With a budget, the time of each retransformation is used to estimate
+ * the time per class, and the next batch is sized to fit within the budget. The size at most doubles or halves from one
+ * batch to the next, so a single slow or fast batch can't throw it off.
+ */
+public class BatchScheduler {
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    private final long maxPauseNanos;
+    private final long batchPauseMillis;
+    private int batchSize;
+
+    /**
+     * @param initialBatchSize size of the first batch, and of all batches if no pause budget was given
+     * @param maxPauseMillis   the pause budget per batch, 0 for a fixed batch size
+     * @param batchPauseMillis time to sleep between batches, 0 for none
+     */
+    public BatchScheduler(int initialBatchSize, long maxPauseMillis, long batchPauseMillis) {
+        this.batchSize = initialBatchSize;
+        this.maxPauseNanos = TimeUnit.MILLISECONDS.toNanos(maxPauseMillis);
+        this.batchPauseMillis = batchPauseMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Adjusts the batch size based on the time it took to retransform a batch.
+     *
+     * @param size         of the batch
+     * @param elapsedNanos time it took to retransform the batch
+     */
+    public void record(int size, long elapsedNanos) {
+        if (maxPauseNanos <= 0 || size <= 0) {
+            return;
+        }
+
+        long target;
+        if (elapsedNanos <= 0) {
+            target = (long) size * 2;
+        } else {
+            target = (long) ((double) size * maxPauseNanos / elapsedNanos);
+        }
+        target = Math.max(target, batchSize / 2);
+        target = Math.min(target, (long) batchSize * 2);
+        batchSize = (int) Math.max(1, Math.min(target, MAX_BATCH_SIZE));
+    }
+
+    /**
+     * Sleeps between batches, giving the target process time to run undisturbed.
+     *
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    public void pause() throws InterruptedException {
+        if (batchPauseMillis > 0) {
+            Thread.sleep(batchPauseMillis);
+        }
+    }
+}
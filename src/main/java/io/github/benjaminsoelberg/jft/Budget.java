@@ -0,0 +1,87 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how much wall time, CPU time and heap a dump may use.
+ * <p>
+ * CPU time is the time used by the threads added to the budget since they were added, as the cost of the agent can't be
+ * told apart from the rest of the target otherwise. Heap is the growth in used heap since the budget was created,
+ * which includes what the target allocates in the meantime, making it a conservative limit.
+ */
+public class Budget {
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    // Thread to the CPU time it had used when it was added
+    private final Map<Thread, Long> cpuThreads = new ConcurrentHashMap<>();
+    private final long maxNanos;
+    private final long maxCpuNanos;
+    private final long maxHeapBytes;
+    private final long started;
+    private final long startHeap;
+
+    /**
+     * @param maxTimeMillis   wall time budget, 0 for unlimited
+     * @param maxCpuMillis    CPU time budget of the added threads, 0 for unlimited
+     * @param maxHeapMegabytes heap growth budget, 0 for unlimited
+     */
+    public Budget(long maxTimeMillis, long maxCpuMillis, long maxHeapMegabytes) {
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxTimeMillis);
+        this.maxCpuNanos = TimeUnit.MILLISECONDS.toNanos(maxCpuMillis);
+        this.maxHeapBytes = maxHeapMegabytes * 1024 * 1024;
+        this.started = System.nanoTime();
+        this.startHeap = maxHeapBytes > 0 ? memory.getHeapMemoryUsage().getUsed() : 0;
+    }
+
+    /**
+     * @return true if CPU time can be measured, if not the CPU budget is ignored
+     */
+    public boolean isCpuTimeSupported() {
+        return threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * Counts the CPU time a thread uses from now on against the budget. The time it used before, like a long-lived
+     * attach listener thread running earlier dumps, isn't counted.
+     *
+     * @param thread doing work for the dump
+     */
+    public void addThread(Thread thread) {
+        // -1 if the thread hasn't started yet
+        cpuThreads.putIfAbsent(thread, Math.max(0, threads.getThreadCpuTime(thread.getId())));
+    }
+
+    /**
+     * @return why the budget is exhausted, null if there is budget left
+     */
+    public String getExhausted() {
+        long elapsed = System.nanoTime() - started;
+        if (maxNanos > 0 && elapsed > maxNanos) {
+            return String.format("wall time of %d ms exceeded", TimeUnit.NANOSECONDS.toMillis(maxNanos));
+        }
+        if (maxCpuNanos > 0 && isCpuTimeSupported() && getCpuNanos() > maxCpuNanos) {
+            return String.format("CPU time of %d ms exceeded", TimeUnit.NANOSECONDS.toMillis(maxCpuNanos));
+        }
+        if (maxHeapBytes > 0 && memory.getHeapMemoryUsage().getUsed() - startHeap > maxHeapBytes) {
+            return String.format("heap growth of %d MB exceeded", maxHeapBytes / 1024 / 1024);
+        }
+        return null;
+    }
+
+    /**
+     * @return CPU time used by the added threads that are still alive, since they were added
+     */
+    public long getCpuNanos() {
+        long total = 0;
+        for (Map.Entry<Thread, Long> entry : cpuThreads.entrySet()) {
+            // -1 if the thread has ended
+            total += Math.max(0, threads.getThreadCpuTime(entry.getKey().getId()) - entry.getValue());
+        }
+        return total;
+    }
+}
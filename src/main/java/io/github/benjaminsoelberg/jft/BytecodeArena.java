@@ -0,0 +1,96 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Off-heap staging area for captured bytecode, keeping the heap of the target as untouched as possible.
+ * <p>
+ * Bytecode is copied into blocks of a memory mapped temp file, which is deleted as soon as it is open. Unlike direct
+ * buffers, the mapping doesn't count towards -XX:MaxDirectMemorySize, so filling it never triggers a garbage collection
+ * in the target. Each class costs a read only view of its offset and length on the heap rather than its bytecode.
+ * <p>
+ * Blocks are mapped as they are needed, up to the capacity. Instances are not thread safe, classes must be added from
+ * one thread at a time.
+ */
+public class BytecodeArena implements Closeable {
+    static final int BLOCK_SIZE = 64 * 1024 * 1024;
+
+    private final long capacity;
+    private final int blockSize;
+    private final FileChannel channel;
+    private MappedByteBuffer block;
+    private long mapped;
+    private long used;
+
+    /**
+     * @param capacity of the arena in bytes
+     * @throws IOException if the temp file couldn't be created
+     */
+    public BytecodeArena(long capacity) throws IOException {
+        this(capacity, BLOCK_SIZE);
+    }
+
+    BytecodeArena(long capacity, int blockSize) throws IOException {
+        this.capacity = capacity;
+        this.blockSize = blockSize;
+        File file = Files.createTempFile("jft-arena-", ".tmp").toFile();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // The mapping outlives the name, except on Windows where it can't be deleted while open
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Copies bytecode into the arena.
+     *
+     * @param bytecode to copy
+     * @return a read only view of the copy, or null if the arena is full
+     * @throws IOException if a block couldn't be mapped
+     */
+    public ByteBuffer add(byte[] bytecode) throws IOException {
+        if (block == null || block.remaining() < bytecode.length) {
+            long size = Math.min(blockSize, capacity - mapped);
+            if (bytecode.length > size) {
+                return null;
+            }
+            // The rest of the previous block is left unused
+            block = channel.map(FileChannel.MapMode.READ_WRITE, mapped, size);
+            mapped += size;
+        }
+
+        int position = block.position();
+        block.put(bytecode);
+        used += bytecode.length;
+        ByteBuffer copy = block.asReadOnlyBuffer();
+        copy.position(position).limit(position + bytecode.length);
+        return copy.slice();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the size of the bytecode in the arena
+     */
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * Closes the temp file. The memory is released when the views of the bytecode have been garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        block = null;
+        channel.close();
+    }
+}
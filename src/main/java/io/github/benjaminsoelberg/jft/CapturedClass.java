@@ -0,0 +1,42 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.security.ProtectionDomain;
+
+/**
+ * The bytecode of a class as seen by the transformer, handed over to the writer thread for further processing.
+ */
+public final class CapturedClass {
+    private final Class<?> clazz;
+    private final ClassLoader loader;
+    private final String nativeClassName;
+    private final ProtectionDomain protectionDomain;
+    private final byte[] bytecode;
+
+    public CapturedClass(Class<?> clazz, ClassLoader loader, String nativeClassName, ProtectionDomain protectionDomain, byte[] bytecode) {
+        this.clazz = clazz;
+        this.loader = loader;
+        this.nativeClassName = nativeClassName;
+        this.protectionDomain = protectionDomain;
+        this.bytecode = bytecode;
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    public ClassLoader getLoader() {
+        return loader;
+    }
+
+    public String getNativeClassName() {
+        return nativeClassName;
+    }
+
+    public ProtectionDomain getProtectionDomain() {
+        return protectionDomain;
+    }
+
+    public byte[] getBytecode() {
+        return bytecode;
+    }
+}
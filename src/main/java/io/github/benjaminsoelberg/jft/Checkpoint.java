@@ -0,0 +1,100 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Classes left to dump when a dump stopped early, identified by their path in the jar, like
+ * "[bootloader]/java/lang/String.class".
+ * <p>
+ * The checkpoint is written to the jar of the stopped dump, one path per line. Passing that jar, or just the
+ * checkpoint, to a later dump of the same JVM only dumps the classes in it, which allows a large JVM to be dumped in
+ * several slices. Class loaders without a name are identified by their identity hash code, which is why a checkpoint
+ * can't be used with another JVM.
+ */
+public class Checkpoint {
+    public static final String ENTRY_NAME = "checkpoint.txt";
+
+    private final Set<String> paths = new LinkedHashSet<>();
+    // The path of each class loader, null being the bootstrap class loader
+    private final Map<ClassLoader, String> loaderPaths = new IdentityHashMap<>();
+
+    public void add(Class<?> clazz) {
+        paths.add(toPath(clazz));
+    }
+
+    /**
+     * @param clazz to look for
+     * @return true if the class is left to dump
+     */
+    public boolean contains(Class<?> clazz) {
+        return paths.contains(toPath(clazz));
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public byte[] toBytes() {
+        StringBuilder sb = new StringBuilder(paths.size() * 64);
+        paths.forEach(path -> sb.append(path).append('\n'));
+        return Utils.fromUtf8String(sb.toString());
+    }
+
+    /**
+     * Loads a checkpoint from either a stopped dump or a checkpoint file.
+     *
+     * @param file jar or checkpoint file
+     * @return the checkpoint
+     * @throws IOException if the file couldn't be read or is a jar without a checkpoint
+     */
+    public static Checkpoint load(File file) throws IOException {
+        if (!HashManifest.isZip(file)) {
+            try (InputStream in = new FileInputStream(file)) {
+                return parse(in);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            ZipEntry entry = zip.getEntry(ENTRY_NAME);
+            if (entry == null) {
+                throw new IOException(String.format("No %s in %s, the dump was complete", ENTRY_NAME, file));
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                return parse(in);
+            }
+        }
+    }
+
+    private static Checkpoint parse(InputStream in) throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith("[") || !line.endsWith(".class")) {
+                throw new IOException(String.format("Invalid checkpoint line [%s]", line));
+            }
+            checkpoint.paths.add(line);
+        }
+        return checkpoint;
+    }
+
+    private String toPath(Class<?> clazz) {
+        return loaderPaths.computeIfAbsent(clazz.getClassLoader(), Utils::toClassLoaderPath) + Utils.toNativeClassName(clazz.getName()) + ".class";
+    }
+}
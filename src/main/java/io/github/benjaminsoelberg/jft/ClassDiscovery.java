@@ -0,0 +1,187 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Finds the loaded classes accepted by the options.
+ * <p>
+ * The filters are ordered by cost, so the name filter and class loader checks rule out most classes before the JVM is
+ * asked whether a class is modifiable, which an inventory doesn't ask at all. Large class counts are filtered in
+ * parallel. The classes are returned in the order the JVM reported them, sorting is left to whoever presents them.
+ * <p>
+ * When class loaders are selected, only the classes of the selected loaders are asked for, rather than every class in
+ * the JVM, so a targeted dump scales with the size of its target. The JVM lists the classes each loader initiated,
+ * including those it delegated to a parent, which are dropped by name before their defining loader is checked.
+ * <p>
+ * Discovery finishes before the first batch is retransformed, as the JVM hands out all loaded classes in one array, and
+ * batching, checkpoints and the metrics all rely on knowing the accepted classes up front.
+ * <p>
+ * A resident agent reuses its discovery, which then remembers whether each class was accepted. Later discoveries only
+ * filter the classes loaded since, and can leave out the classes seen before altogether. Classes are remembered weakly,
+ * so they can still be unloaded.
+ */
+public class ClassDiscovery {
+    public static final int PARALLEL_THRESHOLD = 10_000;
+
+    private final Instrumentation instrumentation;
+    private final Options options;
+    private final LoaderSelector selector;
+    private final ClassLoader platformClassLoader = ClassLoader.getPlatformClassLoader();
+    private final ClassLoader agentClassLoader = ClassDiscovery.class.getClassLoader();
+    private final String agentPackage = ClassDiscovery.class.getPackageName();
+    private int loadedClasses;
+    private int selectedLoaders;
+    private Map<Class<?>, Boolean> seen;
+
+    public ClassDiscovery(Instrumentation instrumentation, Options options) {
+        this.instrumentation = instrumentation;
+        this.options = options;
+        this.selector = options.getLoaderSelector();
+    }
+
+    /**
+     * Remembers the classes seen from now on, making later discoveries cheaper.
+     */
+    public void remember() {
+        if (seen == null) {
+            seen = Collections.synchronizedMap(new WeakHashMap<>());
+        }
+    }
+
+    /**
+     * Excludes a class from all later discoveries, if classes are remembered.
+     *
+     * @param clazz to exclude, like a class that failed to retransform
+     */
+    public void reject(Class<?> clazz) {
+        if (seen != null) {
+            seen.put(clazz, false);
+        }
+    }
+
+    public Class<?>[] discover() {
+        return discover(false);
+    }
+
+    /**
+     * @return the accepted classes that have not been seen by an earlier discovery, all of them if classes are not
+     * remembered
+     */
+    public Class<?>[] discoverNew() {
+        return discover(true);
+    }
+
+    private Class<?>[] discover(boolean onlyNew) {
+        Class<?>[] classes;
+        Predicate<Class<?>> filter;
+        if (selector == null) {
+            classes = instrumentation.getAllLoadedClasses();
+            loadedClasses = classes.length;
+            filter = this::accept;
+        } else {
+            // Already filtered by name
+            classes = getSelectedClasses();
+            filter = this::acceptNamed;
+        }
+        Stream<Class<?>> stream = Arrays.stream(classes);
+        if (classes.length >= PARALLEL_THRESHOLD) {
+            stream = stream.parallel();
+        }
+        if (seen == null) {
+            return stream.filter(filter).toArray(Class<?>[]::new);
+        }
+        return stream.filter(clazz -> {
+            Boolean known = seen.get(clazz);
+            if (known != null) {
+                return known && !onlyNew;
+            }
+            boolean accepted = filter.test(clazz);
+            seen.put(clazz, accepted);
+            return accepted;
+        }).toArray(Class<?>[]::new);
+    }
+
+    /**
+     * @return the classes defined by the selected loaders and accepted by the name filter
+     */
+    private Class<?>[] getSelectedClasses() {
+        List<ClassLoader> loaders = selector.select(instrumentation);
+        selectedLoaders = loaders.size();
+        loadedClasses = 0;
+        List<Class<?>> classes = new ArrayList<>();
+        Predicate<String> filter = options.getFilterPredicate();
+        for (ClassLoader loader : loaders) {
+            Class<?>[] initiated = instrumentation.getInitiatedClasses(loader);
+            loadedClasses += initiated.length;
+            for (Class<?> clazz : initiated) {
+                if (filter.test(clazz.getName()) && clazz.getClassLoader() == loader) {
+                    classes.add(clazz);
+                }
+            }
+        }
+        return classes.toArray(new Class<?>[0]);
+    }
+
+    /**
+     * @return the number of classes loaded by the JVM, or by the selected class loaders, at the time of the latest
+     * discovery
+     */
+    public int getLoadedClasses() {
+        return loadedClasses;
+    }
+
+    /**
+     * @return the number of class loaders selected by the latest discovery, 0 if classes of all loaders are discovered
+     */
+    public int getSelectedLoaders() {
+        return selectedLoaders;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    boolean accept(Class<?> clazz) {
+        return options.getFilterPredicate().test(clazz.getName()) && acceptNamed(clazz);
+    }
+
+    /**
+     * Applies every filter but the name filter, for classes already accepted by name.
+     */
+    private boolean acceptNamed(Class<?> clazz) {
+        String name = clazz.getName();
+        ClassLoader loader = clazz.getClassLoader();
+        if (loader == null) {
+            if (options.isIgnoreSystemClassloader()) {
+                return false;
+            }
+        } else if (loader == platformClassLoader) {
+            if (options.isIgnorePlatformClassloader()) {
+                return false;
+            }
+        } else if (loader == agentClassLoader && isAgentPackage(name)) {
+            // Never dump the agent itself
+            return false;
+        }
+
+        if (options.isInventory()) {
+            // Nothing is retransformed, but arrays and primitives aren't loaded by anyone
+            return !clazz.isArray() && !clazz.isPrimitive();
+        }
+        return instrumentation.isModifiableClass(clazz);
+    }
+
+    private boolean isAgentPackage(String name) {
+        return name.length() > agentPackage.length()
+               && name.startsWith(agentPackage)
+               && name.lastIndexOf('.') == agentPackage.length();
+    }
+}
@@ -3,16 +3,27 @@ package io.github.benjaminsoelberg.jft;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
 
 public class ClassDumper {
 
@@ -21,15 +32,52 @@ public class ClassDumper {
 
     public static final int DUMP_BATCH_SIZE = 100;
 
+    public static final String VERIFICATION_ENTRY_NAME = "verification.txt";
+    public static final int CAPTURE_QUEUE_SIZE = 1024;
+
+    // Signals the writer thread that no more classes will be captured
+    private static final CapturedClass END_OF_CAPTURES = new CapturedClass(null, null, null, null, null);
+
+    // Kept between loads of the agent in resident mode, as the agent class itself stays loaded
+    private static ClassDiscovery resident;
+    private static Watcher watcher;
+
     private final Instrumentation instrumentation;
     private final Options options;
     private final Report report;
     private final ClassTree classTree = new ClassTree();
-    private final AtomicReference<Class<?>> latestDumpedClass = new AtomicReference<>();
+    private final HashManifest manifest = new HashManifest();
+    private final DedupStore dedupStore;
+    private final Metrics metrics;
+    private final Budget budget;
+    private Checkpoint checkpoint;
+    private HashManifest baseline;
+    private BytecodeArena arena;
+    private long heapFallbacks;
+    private long heapFallbackBytes;
+    private SignatureScanner scanner;
+    private final Map<String, int[]> signatureHits = new TreeMap<>();
+    private long scanned;
+    private OriginVerifier verifier;
+    private final Queue<Verification> verifications = new ArrayDeque<>();
+    private final Map<OriginVerifier.Verdict, Integer> verdicts = new EnumMap<>(OriginVerifier.Verdict.class);
+    private final StringBuilder verificationLog = new StringBuilder();
+    private Inventory inventory;
+
+    private static final class Verification {
+        private final CapturedClass capture;
+        private final Future<OriginVerifier.Verdict> verdict;
+
+        private Verification(CapturedClass capture, Future<OriginVerifier.Verdict> verdict) {
+            this.capture = capture;
+            this.verdict = verdict;
+        }
+    }
     private final AtomicReference<Throwable> latestException = new AtomicReference<>();
+    private final BlockingQueue<CapturedClass> captures = new ArrayBlockingQueue<>(CAPTURE_QUEUE_SIZE);
 
     @SuppressWarnings("ReassignedVariable")
-    public static void agentmain(String cmdline, Instrumentation instrumentation) throws Exception {
+    public static synchronized void agentmain(String cmdline, Instrumentation instrumentation) throws Exception {
         /* Stage 0: Override command line options if running a unit test */
         // We are unable to parse arguments to agentmain while running unit test, hence this inject-hook
         if (TEST_AGENT_CMD_LINE != null) {
@@ -45,71 +93,235 @@ public class ClassDumper {
         /* Stage 1: decode options */
         String[] args = Utils.decodeArgs(cmdline);
         options = new Options(args);
+        // Duplicates can share the bytecode kept in the class tree on the heap, while nothing is kept when streaming or
+        // staging off the heap, as duplicates are never written
+        dedupStore = options.isDedup() ? new DedupStore(!options.isStream() && options.getOffHeapMegabytes() == 0) : null;
+        metrics = new Metrics(options.isJfr());
+        budget = new Budget(options.getMaxTimeMillis(), options.getMaxCpuMillis(), options.getMaxHeapMegabytes());
+        budget.addThread(Thread.currentThread());
 
         /* Stage 2: initialize report */
         report = new Report(Utils.getApplicationHeader(), options.isVerbose(), options.isLogToStdErr());
         report.println("Agent loaded with options: %s%n", String.join(" ", args));
+        if (options.getMaxCpuMillis() > 0 && !budget.isCpuTimeSupported()) {
+            report.println("WARNING: Thread CPU time can't be measured, ignoring the CPU budget");
+            report.println("");
+        }
+
+        try {
+            dump();
+        } finally {
+            // Lets verbose mode print the last lines before the agent returns
+            report.close();
+        }
+    }
+
+    private void dump() throws IOException {
+        if (options.isShutdown()) {
+            report.println(resident != null ? "Resident agent shut down" : "WARNING: No resident agent to shut down");
+            resident = null;
+            stopWatching();
+            return;
+        }
 
         /* Stage 3: query all loaded classes */
         report.println("Querying classes...");
-        List<Class<?>> classes = new ArrayList<>(Arrays.asList(getFilteredClasses()));
+        ClassDiscovery discovery = createDiscovery();
+        metrics.startStage("discovery");
+        Class<?>[] discovered = Options.DELTA_COMMAND.equals(options.getCommand()) ? discovery.discoverNew() : discovery.discover();
+        metrics.startStage(null);
+        if (options.getLoaderSelector() != null) {
+            report.println("Accepted %d of %d classes loaded by %d selected class loaders in %.2f ms", discovered.length, discovery.getLoadedClasses(), discovery.getSelectedLoaders(), metrics.getStageNanos("discovery") / 1_000_000.0);
+        } else {
+            report.println("Accepted %d of %d loaded classes in %.2f ms", discovered.length, discovery.getLoadedClasses(), metrics.getStageNanos("discovery") / 1_000_000.0);
+        }
+
+        if (options.getResume() != null) {
+            File file = new File(options.getResume());
+            Checkpoint resumed = Checkpoint.load(file);
+            discovered = Arrays.stream(discovered).filter(resumed::contains).toArray(Class<?>[]::new);
+            report.println("Resuming with %d of the %d classes left in %s%n", discovered.length, resumed.size(), file.getAbsolutePath());
+        }
+        PendingClasses classes = new PendingClasses(discovered);
+        metrics.setClasses(discovery.getLoadedClasses(), classes.total());
+
+        if (options.getBaseline() != null) {
+            metrics.startStage("baseline");
+            File file = new File(options.getBaseline());
+            baseline = HashManifest.load(file);
+            metrics.startStage(null);
+            report.println("Only dumping classes that are new or changed compared to %d classes in %s%n", baseline.size(), file.getAbsolutePath());
+        }
+
+        if (options.getSignatures() != null) {
+            metrics.startStage("signatures");
+            File file = new File(options.getSignatures());
+            scanner = SignatureScanner.load(file);
+            metrics.startStage(null);
+            report.println("Scanning for %d signatures from %s%s%n", scanner.size(), file.getAbsolutePath(), options.isMatchesOnly() ? ", only dumping matching classes" : "");
+        }
+
+        /* Stage 4: open the jar */
+        // The jar is opened up front as streaming mode writes each class to it as soon as it has been dumped
+        File destination = new File(options.getDestination());
+        try (JarWriter jar = new JarWriter(openDestination(destination), options.getThreads(), options.getLevel());
+             IndexedDumpWriter index = options.isIndexed() ? new IndexedDumpWriter(new File(options.getIndexedDestination())) : null;
+             BytecodeArena staging = options.getOffHeapMegabytes() > 0 && !options.isStream() ? new BytecodeArena(options.getOffHeapMegabytes() * 1024L * 1024L) : null;
+             OriginVerifier verifying = options.isVerify() ? new OriginVerifier(options.getThreads()) : null) {
+            arena = staging;
+            verifier = verifying;
+            if (index != null) {
+                report.println("Also writing classes to the indexed dump %s%n", new File(options.getIndexedDestination()).getAbsolutePath());
+            }
+
+            /* Stage 5: initialize transformer */
+            final ClassFileTransformer transformer = createTransformer();
+
+            if (options.isInventory()) {
+                /* Stage 6: take an inventory instead of dumping */
+                takeInventory(discovered);
+            } else if (classes.total() > 0) {
+                /* Stage 6: start the writer and add transformer */
+                report.println("%d classes found.%n", classes.total());
+                // The transformer could (as a side effect) be called with classes not in the list which is why we pass the filtered classes list
+                Thread writer = startWriter(classes, jar, index);
+                instrumentation.addTransformer(transformer, true);
+
+                /* Stage 7: dump all classes in filtered list */
+                report.println("Dumping classes...");
+                FailureIsolator isolator = new FailureIsolator(instrumentation);
+                metrics.startStage("retransform");
+                try {
+                    dumpClasses(classes, transformer, isolator);
+                } finally {
+                    // Whatever is still queued when the last batch is done is written while waiting for the writer
+                    metrics.startStage("writer");
+                    stopWriter(writer);
+                    metrics.startStage(null);
+                }
+                reportQuarantined(classes, isolator);
+                // A resident agent never tries them again
+                isolator.getQuarantined().keySet().forEach(discovery::reject);
+                if (classes.hasNextBatch()) {
+                    createCheckpoint(classes, isolator);
+                }
+                reportChanges();
+                reportArena();
+                reportSignatureHits();
+                reportVerification();
+                if (!classes.isEmpty()) {
+                    report.println("WARNING: %d classes were not dumped%n", classes.size());
+                }
+
+                /* Stage 8: print class loader & class tree */
+                report.println("Class loader & class tree...");
+                metrics.startStage("tree");
+                dumpNodeToReport(classTree.getRoot(), "");
+                metrics.startStage(null);
+            } else {
+                report.println("WARNING: No classes found, bad filter ?");
+                report.println("");
+            }
+
+            if (options.isWatch()) {
+                startWatching();
+            }
 
-        /* Stage 4: initialize transformer */
-        // The transformer could (as a side effect) be called with classes not in the list which is why we pass the filtered classes list
-        final ClassFileTransformer transformer = createTransformer(classes);
+            /* Stage 9: write the jar */
+            report.println("Creating jar...");
+            writeJar(jar, destination);
+        }
+    }
 
-        if (!classes.isEmpty()) {
-            /* Stage 5: add transformer */
-            report.println("%d classes found.%n", classes.size());
-            instrumentation.addTransformer(transformer, true);
+    private void takeInventory(Class<?>[] discovered) {
+        metrics.startStage("inventory");
+        for (Class<?> clazz : discovered) {
+            classTree.add(clazz, null);
+        }
+        inventory = new Inventory(classTree);
+        metrics.startStage(null);
+        report.println("Took an inventory of %d classes in %d packages and %d class loaders in %.2f ms, listed in %s%n", inventory.getClasses(), inventory.getPackages(), inventory.getLoaders(), metrics.getStageNanos("inventory") / 1_000_000.0, Inventory.ENTRY_NAME);
+    }
 
-            /* Stage 6: dump all classes in filtered list */
-            report.println("Dumping classes...");
-            dumpClasses(classes, transformer);
+    /**
+     * @return the discovery of the resident agent, which keeps the filters of the load that made it resident and
+     * remembers the classes it has seen, otherwise a new discovery
+     */
+    private ClassDiscovery createDiscovery() {
+        if (!options.isResident()) {
+            return new ClassDiscovery(instrumentation, options);
+        }
 
-            /* Stage 7: print class loader & class tree */
-            report.println("Class loader & class tree...");
-            dumpNodeToReport(classTree.getRoot(), "");
+        if (resident == null) {
+            resident = new ClassDiscovery(instrumentation, options);
+            resident.remember();
+            report.println("Agent is now resident, later loads reuse its filters and only filter classes loaded since");
+            report.println("");
         } else {
-            report.println("WARNING: No classes found, bad filter ?%n");
+            report.println("Resident agent reusing the filters of its first load: %s%n", resident.getOptions().getFilter());
+        }
+        return resident;
+    }
+
+    private void startWatching() {
+        if (watcher != null) {
+            report.println("Already watching for defined and redefined classes");
+            report.println("");
+            return;
         }
 
-        /* Stage 8: create the jar */
-        report.println("Creating jar...");
-        writeJar();
+        watcher = new Watcher(instrumentation, options);
+        watcher.start();
+        report.println("Watching for defined and redefined classes, which are written to %s and onwards%n", watcher.getSegmentFile(1).getAbsolutePath());
     }
 
-    private Class<?>[] getFilteredClasses() {
-        return Arrays.stream(instrumentation.getAllLoadedClasses())
-                .filter(instrumentation::isModifiableClass)
-                .filter(clazz -> options.getFilterPredicate().test(clazz.getName()))
-                .filter(clazz -> !(options.isIgnoreSystemClassloader() && clazz.getClassLoader() == null))
-                .filter(clazz -> !(options.isIgnorePlatformClassloader() && clazz.getClassLoader() == ClassLoader.getPlatformClassLoader()))
-                .filter(clazz -> clazz.getPackage() != this.getClass().getPackage())
-                .sorted(Comparator.comparing(Class::getName))
-                .toArray(Class<?>[]::new);
+    private void stopWatching() {
+        if (watcher == null) {
+            return;
+        }
+
+        watcher.close();
+        report.println("Stopped watching, %d classes were captured into %d segments and %d were dropped", watcher.getCaptured(), watcher.getSegments(), watcher.getDropped());
+        if (watcher.getLatestException() != null) {
+            report.println("WARNING: One or more exceptions occurred while watching.");
+            report.dump(watcher.getLatestException());
+        }
+        watcher = null;
+    }
+
+    /**
+     * @param destination of the jar
+     * @return the file, or a connection to the attaching side which writes the jar on its own file system
+     * @throws IOException if the destination couldn't be opened
+     */
+    private OutputStream openDestination(File destination) throws IOException {
+        if (options.getConnectPort() == 0) {
+            return new FileOutputStream(destination);
+        }
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), options.getConnectPort());
+        // Closing the stream closes the socket
+        OutputStream out = socket.getOutputStream();
+        out.write(Utils.fromUtf8String(options.getConnectToken() + "\n"));
+        return out;
     }
 
-    private ClassFileTransformer createTransformer(List<Class<?>> classes) {
+    private ClassFileTransformer createTransformer() {
         return new ClassFileTransformer() {
             @Override
             public byte[] transform(Module module, ClassLoader loader, String nativeClassName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
-                latestDumpedClass.set(null);
-
                 try {
                     // Ignore initial class load etc. as we only want to dump classes that was previously accepted by the filter
                     if (nativeClassName == null || classBeingRedefined == null || classfileBuffer == null) {
                         return null;
                     }
 
-                    // Save the class info if not previously processed
-                    if (classes.contains(classBeingRedefined)) {
-                        if (classes.remove(classBeingRedefined)) {
-                            latestDumpedClass.set(classBeingRedefined);
-                            report.println("Dumping %s (%d bytes)", Utils.toJavaClassName(nativeClassName), classfileBuffer.length);
-                            classTree.add(classBeingRedefined, classfileBuffer);
-                        }
-                    }
+                    // Everything else is done by the writer thread to keep the retransformation as short as possible.
+                    // A full queue blocks the retransformation until the writer catches up.
+                    captures.put(new CapturedClass(classBeingRedefined, loader, nativeClassName, protectionDomain, classfileBuffer));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    latestException.set(ie);
                 } catch (Throwable th) {
                     // Keep latest exception for later retrieval
                     latestException.set(th);
@@ -121,79 +333,370 @@ public class ClassDumper {
         };
     }
 
-    private void dumpClasses(List<Class<?>> classes, ClassFileTransformer transformer) {
+    private Thread startWriter(PendingClasses pending, JarWriter jar, IndexedDumpWriter index) {
+        Thread writer = new Thread(() -> {
+            try {
+                CapturedClass capture;
+                while ((capture = captures.take()) != END_OF_CAPTURES) {
+                    try {
+                        // Save the class info if not previously processed
+                        if (pending.remove(capture.getClazz())) {
+                            if (verifier != null) {
+                                verifications.add(new Verification(capture, verifier.verify(capture.getProtectionDomain(), capture.getNativeClassName(), capture.getBytecode())));
+                                writeVerified(jar, index, false);
+                            } else {
+                                writeCapture(capture, jar, index);
+                            }
+                        }
+                    } catch (Throwable th) {
+                        // Keep latest exception for later retrieval
+                        latestException.set(th);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                latestException.set(ie);
+            }
+            writeVerified(jar, index, true);
+        }, "jft-writer");
+        writer.setDaemon(true);
+        budget.addThread(writer);
+        writer.start();
+        return writer;
+    }
+
+    private void stopWriter(Thread writer) {
+        try {
+            captures.put(END_OF_CAPTURES);
+            writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            latestException.set(ie);
+        }
+    }
+
+    /**
+     * Writes the verified classes, in the order they were captured, that aren't unchanged compared to their origin.
+     *
+     * @param all true to wait for all classes to be verified, otherwise only those verified already are written unless
+     *            too many are waiting
+     */
+    private void writeVerified(JarWriter jar, IndexedDumpWriter index, boolean all) {
+        while (!verifications.isEmpty() && (all || verifications.peek().verdict.isDone() || verifications.size() > CAPTURE_QUEUE_SIZE)) {
+            Verification verification = verifications.poll();
+            OriginVerifier.Verdict verdict;
+            try {
+                verdict = verification.verdict.get();
+            } catch (ExecutionException ee) {
+                latestException.set(ee.getCause());
+                verdict = OriginVerifier.Verdict.FAILED;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                latestException.set(ie);
+                verdict = OriginVerifier.Verdict.FAILED;
+            }
+            verdicts.merge(verdict, 1, Integer::sum);
+            if (verdict == OriginVerifier.Verdict.UNCHANGED) {
+                continue;
+            }
+
+            CapturedClass capture = verification.capture;
+            URL location = OriginVerifier.getLocation(capture.getProtectionDomain());
+            verificationLog.append(verdict.name()).append('\t').append(classTree.getNode(capture.getLoader()).getPath()).append(capture.getNativeClassName())
+                    .append(".class\t").append(location == null ? "" : location).append('\n');
+            try {
+                writeCapture(capture, jar, index);
+            } catch (Throwable th) {
+                // Keep latest exception for later retrieval
+                latestException.set(th);
+            }
+        }
+    }
+
+    private void writeCapture(CapturedClass capture, JarWriter jar, IndexedDumpWriter index) throws IOException {
+        Class<?> clazz = capture.getClazz();
+        byte[] bytecode = capture.getBytecode();
+        metrics.recordCapture(bytecode.length);
+        ClassTree.Node node = classTree.getNode(capture.getLoader());
+        String path = node.getPath() + capture.getNativeClassName() + ".class";
+        if (scanner != null) {
+            scanned++;
+            int[] hits = scanner.scan(bytecode);
+            if (hits.length > 0) {
+                signatureHits.put(path, hits);
+            } else if (options.isMatchesOnly()) {
+                return;
+            }
+        }
+        report.println("Dumping %s (%d bytes)", clazz.getName(), bytecode.length);
+        byte[] hash = manifest.add(path, bytecode);
+        if (index != null) {
+            // The index holds every class, it has no use for deduplication
+            index.add(clazz.getName(), node.getPath(), bytecode);
+        }
+        if (dedupStore != null) {
+            bytecode = dedupStore.add(path, hash, bytecode);
+        }
+        if (options.isStream()) {
+            // Only keep the class in the tree, the bytecode itself goes straight to the jar
+            writeClass(jar, path, bytecode);
+            node.add(clazz, null);
+        } else {
+            // Classes that won't be written only need a place in the tree
+            node.add(clazz, isWritten(path) ? stage(bytecode) : null);
+        }
+    }
+
+    /**
+     * @param bytecode to keep until the jar is written
+     * @return the bytecode, copied off the heap if there is an arena with room for it
+     */
+    private ByteBuffer stage(byte[] bytecode) throws IOException {
+        if (arena != null) {
+            ByteBuffer copy = arena.add(bytecode);
+            if (copy != null) {
+                return copy;
+            }
+            heapFallbacks++;
+            heapFallbackBytes += bytecode.length;
+        }
+        return ByteBuffer.wrap(bytecode);
+    }
+
+    private void dumpClasses(PendingClasses classes, ClassFileTransformer transformer, FailureIsolator isolator) {
+        BatchScheduler scheduler = new BatchScheduler(DUMP_BATCH_SIZE, options.getMaxPauseMillis(), options.getBatchPauseMillis());
+        long total = 0;
+        int batches = 0;
+
         // Invoke the transformer and remove it when filtered classes are processed
         try {
-            while (!classes.isEmpty()) {
-                final Class<?>[] batch = classes.subList(0, Math.min(DUMP_BATCH_SIZE, classes.size())).toArray(new Class[0]);
-                try {
-                    instrumentation.retransformClasses(batch);
-                } catch (ClassFormatError | InternalError ignored) {
-                    // Some transformations might fail even so no bytecode was changed.
-                    // And we have no other way to track which class that actually failed
-                    final Class<?> ldc = latestDumpedClass.get();
-                    // We only care about the classes we actually dump
-                    if (ldc != null) {
-                        report.println("WARNING: %s might have invalid bytecode", ldc.getName());
+            while (classes.hasNextBatch()) {
+                if (batches > 0) {
+                    // Checked after the first batch, so a resumed dump always makes progress
+                    String exhausted = budget.getExhausted();
+                    if (exhausted != null) {
+                        report.println("Budget exhausted: %s, stopping after %d batches", exhausted, batches);
+                        break;
                     }
+                    scheduler.pause();
+                }
+                final Class<?>[] batch = classes.nextBatch(scheduler.getBatchSize());
+                batches++;
+                long started = System.nanoTime();
+                boolean isolated;
+                try {
+                    isolated = !isolator.retransform(batch);
                 } catch (Throwable th) {
                     report.println("Fatal error: Failed to dump classes");
                     report.dump(th);
                     break;
                 }
+                long elapsed = System.nanoTime() - started;
+                total += elapsed;
+                metrics.recordBatch(batch.length, elapsed);
+                if (isolated) {
+                    // The time includes isolating the failing classes, so it says nothing about the next batch
+                    report.println("Batch %d: %d classes retransformed in %.2f ms, isolating failing classes", batches, batch.length, elapsed / 1_000_000.0);
+                } else {
+                    scheduler.record(batch.length, elapsed);
+                    report.println("Batch %d: %d classes retransformed in %.2f ms", batches, batch.length, elapsed / 1_000_000.0);
+                }
             }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            report.println("Fatal error: Interrupted while dumping classes");
         } finally {
             instrumentation.removeTransformer(transformer);
         }
+        double elapsed = total / 1_000_000.0;
+        report.println("Retransformed %d batches in %.2f ms (%.2f ms per batch, %d calls including failure isolation)", batches, elapsed, batches == 0 ? 0.0 : elapsed / batches, isolator.getRetransformations());
         report.println("");
     }
 
-    private void writeJar() throws IOException {
-        ClassTree.Node root = classTree.getRoot();
-        File destination = new File(options.getDestination());
-        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(destination))) {
-            String base = Utils.toClassLoaderName(root.getLoader()) + "/";
-            dumpNodeToJar(jar, root, base);
-
-            // Validate that no exceptions were generated during the dump process and if so display it last in the report
-            Throwable th = latestException.get();
-            if (th != null) {
-                report.println("WARNING: One or more transformer exceptions occurred while dumping classes.");
-                report.dump(th);
-                report.println("");
+    private void reportQuarantined(PendingClasses classes, FailureIsolator isolator) {
+        Map<Class<?>, Throwable> quarantined = isolator.getQuarantined();
+        if (quarantined.isEmpty()) {
+            return;
+        }
+
+        report.println("WARNING: %d classes failed to retransform and were quarantined:", quarantined.size());
+        // The transformer might have seen a class before the JVM rejected it
+        quarantined.forEach((clazz, th) -> report.println("    %s (%s, %s)", clazz.getName(), th, classes.contains(clazz) ? "not dumped" : "dumped"));
+        report.println("");
+    }
+
+    private void createCheckpoint(PendingClasses classes, FailureIsolator isolator) {
+        checkpoint = new Checkpoint();
+        // Quarantined classes would only fail again
+        Arrays.stream(classes.getPending()).filter(clazz -> !isolator.getQuarantined().containsKey(clazz)).forEach(checkpoint::add);
+        report.println("Stopped before all classes were dumped, %d classes are left in %s%n", checkpoint.size(), Checkpoint.ENTRY_NAME);
+    }
+
+    private void writeClass(JarWriter jar, String path, byte[] bytecode) throws IOException {
+        if (isWritten(path)) {
+            jar.write(path, bytecode);
+        }
+    }
+
+    private void writeClass(JarWriter jar, String path, ByteBuffer bytecode) throws IOException {
+        if (isWritten(path)) {
+            jar.write(path, bytecode);
+        }
+    }
+
+    /**
+     * @param path of the class in the jar
+     * @return true if the class goes into the jar, i.e. it is neither unchanged nor a duplicate
+     */
+    private boolean isWritten(String path) {
+        return isChanged(path) && (dedupStore == null || !dedupStore.isDuplicate(path));
+    }
+
+    /**
+     * @param path of the class in the jar
+     * @return true if there is no baseline or the class is new or changed compared to the baseline
+     */
+    private boolean isChanged(String path) {
+        return baseline == null || !Arrays.equals(baseline.get(path), manifest.get(path));
+    }
+
+    private void reportArena() {
+        if (arena == null) {
+            return;
+        }
+
+        report.println("Staged %d bytes of bytecode off the heap in an arena of %d MB", arena.getUsed(), options.getOffHeapMegabytes());
+        if (heapFallbacks > 0) {
+            report.println("WARNING: The arena was full, %d classes (%d bytes) were kept on the heap", heapFallbacks, heapFallbackBytes);
+        }
+        report.println("");
+    }
+
+    private void reportSignatureHits() {
+        if (scanner == null) {
+            return;
+        }
+
+        int[] counts = new int[scanner.size()];
+        signatureHits.values().forEach(hits -> Arrays.stream(hits).forEach(signature -> counts[signature]++));
+        report.println("Scanned %d classes for %d signatures, %d classes matched", scanned, scanner.size(), signatureHits.size());
+        for (int signature = 0; signature < counts.length; signature++) {
+            if (counts[signature] > 0) {
+                report.println("    %6d %s", counts[signature], scanner.getName(signature));
             }
+        }
+        report.println("");
+    }
+
+    private void reportVerification() {
+        if (verifier == null) {
+            return;
+        }
+
+        report.println("Verified %d classes against %d jars and directories:", verdicts.values().stream().mapToInt(Integer::intValue).sum(), verifier.getOrigins());
+        for (OriginVerifier.Verdict verdict : OriginVerifier.Verdict.values()) {
+            report.println("    %6d %s", verdicts.getOrDefault(verdict, 0), verdict);
+        }
+        report.println("Only classes that aren't unchanged were dumped, they are listed in %s%n", VERIFICATION_ENTRY_NAME);
+    }
+
+    private void reportChanges() {
+        if (baseline == null) {
+            return;
+        }
+
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        manifest.getHashes().forEach((path, hash) -> {
+            byte[] previous = baseline.get(path);
+            if (previous == null) {
+                added.add(path);
+            } else if (!Arrays.equals(previous, hash)) {
+                changed.add(path);
+            }
+        });
+        baseline.getHashes().keySet().stream().filter(path -> manifest.get(path) == null).forEach(missing::add);
 
-            /* Stage 9: finalize the dump */
-            report.println("Done!%n%nDumped classes, including report.txt, can be found in: %s", destination.getAbsolutePath());
-            writeZipEntry(jar, "report.txt", Utils.fromUtf8String(report.generate()));
+        report.println("Compared to the baseline %d classes are new, %d have changed and %d are missing", added.size(), changed.size(), missing.size());
+        changed.forEach(path -> report.println("    changed %s", path));
+        added.forEach(path -> report.println("    new     %s", path));
+        missing.forEach(path -> report.println("    missing %s", path));
+        report.println("");
+    }
+
+    private void writeJar(JarWriter jar, File destination) throws IOException {
+        metrics.startStage("jar");
+        // In streaming mode all classes have already been written, while an inventory has none to write
+        if (!options.isStream() && !options.isInventory()) {
+            dumpNodeToJar(jar, classTree.getRoot());
+        }
+
+        if (inventory != null) {
+            jar.write(Inventory.ENTRY_NAME, inventory.toBytes());
+        } else {
+            jar.write(HashManifest.ENTRY_NAME, manifest.toBytes());
+        }
+        if (dedupStore != null) {
+            jar.write(DedupStore.ENTRY_NAME, dedupStore.toBytes());
+            report.println("%d duplicate classes (%d bytes) were written to %s instead of the jar%n", dedupStore.getDuplicates(), dedupStore.getSavedBytes(), DedupStore.ENTRY_NAME);
         }
+
+        if (checkpoint != null) {
+            jar.write(Checkpoint.ENTRY_NAME, checkpoint.toBytes());
+        }
+
+        if (verifier != null) {
+            jar.write(VERIFICATION_ENTRY_NAME, Utils.fromUtf8String(verificationLog.toString()));
+        }
+
+        if (scanner != null) {
+            StringBuilder hits = new StringBuilder(signatureHits.size() * 128);
+            signatureHits.forEach((path, signatures) -> {
+                hits.append(path);
+                Arrays.stream(signatures).forEach(signature -> hits.append('\t').append(scanner.getName(signature)));
+                hits.append('\n');
+            });
+            jar.write(SignatureScanner.HITS_ENTRY_NAME, Utils.fromUtf8String(hits.toString()));
+        }
+
+        // The last entries are too small to be worth timing
+        metrics.startStage(null);
+        jar.write(Metrics.ENTRY_NAME, Utils.fromUtf8String(metrics.toJson()));
+
+        // Validate that no exceptions were generated during the dump process and if so display it last in the report
+        Throwable th = latestException.get();
+        if (th != null) {
+            report.println("WARNING: One or more transformer exceptions occurred while dumping classes.");
+            report.dump(th);
+            report.println("");
+        }
+
+        /* Stage 10: finalize the dump */
+        // A streamed dump is written on the attaching side, where the destination is already absolute
+        report.println("Done!%n%nDumped classes, including report.txt, can be found in: %s", options.getConnectPort() == 0 ? destination.getAbsolutePath() : destination.getPath());
+        jar.write("report.txt", report::writeTo);
     }
 
-    private void dumpNodeToJar(JarOutputStream jar, ClassTree.Node node, String base) {
-        node.getClasses().forEach((clazz, bytecode) -> {
+    private void dumpNodeToJar(JarWriter jar, ClassTree.Node node) {
+        node.forEachClass((clazz, bytecode) -> {
             try {
-                writeZipEntry(jar, base + Utils.toNativeClassName(clazz.getName()) + ".class", bytecode);
+                writeClass(jar, node.getPath() + Utils.toNativeClassName(clazz.getName()) + ".class", bytecode);
             } catch (IOException e) {
-                throw new RuntimeException(String.format("Failed to add %s with size %d to jar", clazz.getName(), bytecode.length), e);
+                throw new RuntimeException(String.format("Failed to add %s with size %d to jar", clazz.getName(), bytecode.remaining()), e);
             }
         });
 
         for (ClassTree.Node child : node.getChildren()) {
-            dumpNodeToJar(jar, child, base + Utils.toClassLoaderName(child.getLoader()) + "/");
+            dumpNodeToJar(jar, child);
         }
     }
 
     private void dumpNodeToReport(ClassTree.Node node, String indentation) {
         final String indent = "    ";
-        report.println(indentation + Utils.toClassLoaderName(node.getLoader()));
-        node.getClasses().forEach((clazz, bytecode) -> report.println(indentation + indent + clazz.getName()));
+        report.println(indentation + node.getName());
+        node.getClasses().forEach(clazz -> report.println(indentation + indent + clazz.getName()));
         report.println("");
         node.getChildren().forEach(child -> dumpNodeToReport(child, indentation + indent));
     }
 
-    private void writeZipEntry(JarOutputStream jar, String name, byte[] data) throws IOException {
-        jar.putNextEntry(new ZipEntry(name));
-        jar.write(data);
-    }
-
 }
\ No newline at end of file
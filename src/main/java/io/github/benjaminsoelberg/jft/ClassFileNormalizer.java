@@ -0,0 +1,213 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hashes a class file in a form where the bytecode captured by a retransformation and the class file it was loaded from
+ * hash the same, unless the class was changed.
+ * <p>
+ * Unless an agent able to retransform was present when a class was loaded, the JVM rebuilds the class file from its
+ * internal representation. Fields, methods and attributes may then come out in a different order, and attributes
+ * unknown to the JVM are dropped. The header, constant pool and interfaces are hashed as they are. Members and their
+ * attributes are hashed in sorted order, and only attributes defined by the JVM specification are included, so
+ * unknown attributes are ignored on both sides. The Code attribute is hashed without its length, as its own nested
+ * attributes are normalized the same way.
+ */
+final class ClassFileNormalizer {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final Set<String> KNOWN_ATTRIBUTES = Set.of(
+            "ConstantValue", "Code", "StackMapTable", "Exceptions", "InnerClasses", "EnclosingMethod", "Synthetic",
+            "Signature", "SourceFile", "SourceDebugExtension", "LineNumberTable", "LocalVariableTable",
+            "LocalVariableTypeTable", "Deprecated", "RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations",
+            "RuntimeVisibleParameterAnnotations", "RuntimeInvisibleParameterAnnotations", "RuntimeVisibleTypeAnnotations",
+            "RuntimeInvisibleTypeAnnotations", "AnnotationDefault", "BootstrapMethods", "MethodParameters", "Module",
+            "ModulePackages", "ModuleMainClass", "NestHost", "NestMembers", "Record", "PermittedSubclasses");
+
+    private final ByteBuffer in;
+    // Position of each Utf8 constant, 0 for other constants
+    private int[] utf8;
+
+    private ClassFileNormalizer(byte[] classFile) {
+        in = ByteBuffer.wrap(classFile);
+    }
+
+    /**
+     * @param classFile to hash
+     * @return SHA-256 of the normalized class file
+     * @throws IllegalArgumentException if the class file is malformed
+     */
+    static byte[] digest(byte[] classFile) {
+        try {
+            return new ClassFileNormalizer(classFile).digest();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    private byte[] digest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        in.getInt(); // Version
+        readConstantPool();
+        in.getShort(); // Access flags
+        in.getShort(); // This class
+        in.getShort(); // Super class
+        skip(2 * u2()); // Interfaces
+        // Everything up to here is kept as is
+        digest.update(in.array(), 0, in.position());
+
+        for (int i = 0; i < 2; i++) {
+            // Fields, then methods
+            List<byte[]> members = new ArrayList<>();
+            int count = u2();
+            for (int j = 0; j < count; j++) {
+                ByteArrayOutputStream member = new ByteArrayOutputStream();
+                member.write(in.array(), in.position(), 6); // Access flags, name and descriptor
+                in.position(in.position() + 6);
+                writeAll(member, readAttributes());
+                members.add(member.toByteArray());
+            }
+            update(digest, members);
+        }
+        update(digest, readAttributes());
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes after the class file");
+        }
+        return digest.digest();
+    }
+
+    private void readConstantPool() {
+        int count = u2();
+        utf8 = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.get();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.position();
+                    skip(u2());
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(2);
+                    break;
+                case 15: // MethodHandle
+                    skip(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(8);
+                    i++; // Takes two entries
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Invalid constant pool tag %d", tag));
+            }
+        }
+    }
+
+    /**
+     * @return the known attributes, each normalized, in sorted order
+     */
+    private List<byte[]> readAttributes() {
+        List<byte[]> attributes = new ArrayList<>();
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            int start = in.position();
+            String name = getUtf8(u2());
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new IllegalArgumentException("Truncated class file");
+            }
+            int end = in.position() + length;
+            if (name == null || !KNOWN_ATTRIBUTES.contains(name)) {
+                in.position(end);
+                continue;
+            }
+
+            ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+            if (name.equals("Code")) {
+                // The attributes of the code, like its line numbers, may also be reordered or dropped, which
+                // changes the length of the attribute
+                attribute.write(in.array(), start, 2);
+                int header = in.position();
+                in.position(in.position() + 4); // Max stack and locals
+                skip(in.getInt()); // Code
+                skip(8 * u2()); // Exception table
+                attribute.write(in.array(), header, in.position() - header);
+                writeAll(attribute, readAttributes());
+                if (in.position() != end) {
+                    throw new IllegalArgumentException("Invalid Code attribute length");
+                }
+            } else {
+                attribute.write(in.array(), start, end - start);
+                in.position(end);
+            }
+            attributes.add(attribute.toByteArray());
+        }
+        attributes.sort(Arrays::compareUnsigned);
+        return attributes;
+    }
+
+    /**
+     * @param index of a Utf8 constant
+     * @return the constant, or null if the index isn't a Utf8 constant
+     */
+    private String getUtf8(int index) {
+        if (index >= utf8.length || utf8[index] == 0) {
+            return null;
+        }
+        int position = utf8[index];
+        int length = ((in.get(position) & 0xFF) << 8) | (in.get(position + 1) & 0xFF);
+        return Utils.toUtf8String(Arrays.copyOfRange(in.array(), position + 2, position + 2 + length));
+    }
+
+    private static void writeAll(ByteArrayOutputStream out, List<byte[]> blobs) {
+        blobs.forEach(blob -> out.write(blob, 0, blob.length));
+    }
+
+    private static void update(MessageDigest digest, List<byte[]> blobs) {
+        blobs.sort(Arrays::compareUnsigned);
+        digest.update(ByteBuffer.allocate(4).putInt(blobs.size()).array());
+        blobs.forEach(digest::update);
+    }
+
+    private int u2() {
+        return in.getShort() & 0xFFFF;
+    }
+
+    private void skip(int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated class file");
+        }
+        in.position(in.position() + length);
+    }
+}
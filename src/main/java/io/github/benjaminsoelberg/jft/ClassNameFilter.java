@@ -0,0 +1,170 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Class name filter compiled once from the -f patterns.
+ * <p>
+ * Most filters are plain class names or package prefixes like "java\..*", which are matched without the regex engine
+ * through a set of names and a prefix trie. The remaining patterns are merged into a single alternation, and each
+ * thread reuses its own matcher, so testing a class name doesn't allocate.
+ * <p>
+ * A filter can also test native class names like "java/lang/String", as passed to a class file transformer. Names and
+ * prefixes are then matched without converting the name, which is only converted for the remaining patterns.
+ */
+public final class ClassNameFilter implements Predicate<String> {
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
+    private final boolean matchAll;
+    private final boolean inverted;
+    private final boolean nativeNames;
+    private final Set<String> names = new HashSet<>();
+    private final TrieNode prefixes = new TrieNode();
+    private final List<ThreadLocal<Matcher>> matchers = new ArrayList<>();
+
+    private static final class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private boolean terminal;
+
+        private TrieNode get(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private TrieNode add(char c) {
+            TrieNode child = get(c);
+            if (child == null) {
+                child = new TrieNode();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    /**
+     * @param patterns the class name patterns, a class name must match at least one of them
+     * @param inverted true if the result should be inverted, i.e. excluding the matching class names
+     */
+    public ClassNameFilter(List<Pattern> patterns, boolean inverted) {
+        this(patterns, inverted, false);
+    }
+
+    /**
+     * @param patterns    the class name patterns, a class name must match at least one of them
+     * @param inverted    true if the result should be inverted, i.e. excluding the matching class names
+     * @param nativeNames true if tested names are native class names, the patterns still match java class names
+     */
+    public ClassNameFilter(List<Pattern> patterns, boolean inverted, boolean nativeNames) {
+        this.inverted = inverted;
+        this.nativeNames = nativeNames;
+
+        boolean all = false;
+        List<Pattern> regexes = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            String regex = pattern.pattern();
+            if (pattern.flags() != 0) {
+                regexes.add(pattern);
+            } else if (regex.equals(".*")) {
+                all = true;
+            } else if (regex.endsWith(".*") && toLiteral(regex.substring(0, regex.length() - 2)) != null) {
+                addPrefix(toName(toLiteral(regex.substring(0, regex.length() - 2))));
+            } else if (toLiteral(regex) != null) {
+                names.add(toName(toLiteral(regex)));
+            } else {
+                regexes.add(pattern);
+            }
+        }
+        matchAll = all;
+
+        // Patterns with flags or back references (which would be renumbered) can't be merged
+        Predicate<Pattern> mergeable = pattern -> pattern.flags() == 0 && !BACK_REFERENCE.matcher(pattern.pattern()).find();
+        String merged = regexes.stream().filter(mergeable).map(pattern -> "(?:" + pattern.pattern() + ")").collect(Collectors.joining("|"));
+        if (!merged.isEmpty()) {
+            addMatcher(Pattern.compile(merged));
+        }
+        regexes.stream().filter(mergeable.negate()).forEach(this::addMatcher);
+    }
+
+    @Override
+    public boolean test(String className) {
+        return matches(className) ^ inverted;
+    }
+
+    private boolean matches(String className) {
+        if (matchAll || names.contains(className)) {
+            return true;
+        }
+
+        TrieNode node = prefixes;
+        for (int i = 0; i < className.length() && node != null; i++) {
+            node = node.get(className.charAt(i));
+            if (node != null && node.terminal) {
+                return true;
+            }
+        }
+
+        if (nativeNames && !matchers.isEmpty()) {
+            className = Utils.toJavaClassName(className);
+        }
+        for (ThreadLocal<Matcher> matcher : matchers) {
+            if (matcher.get().reset(className).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String toName(String javaClassName) {
+        return nativeNames ? Utils.toNativeClassName(javaClassName) : javaClassName;
+    }
+
+    private void addPrefix(String prefix) {
+        TrieNode node = prefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.add(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    private void addMatcher(Pattern pattern) {
+        matchers.add(ThreadLocal.withInitial(() -> pattern.matcher("")));
+    }
+
+    /**
+     * Converts a regular expression consisting only of class name characters and escaped dots or dollars into the
+     * literal string it matches.
+     *
+     * @param regex to convert
+     * @return the literal or null if the regex is more than a literal
+     */
+    static String toLiteral(String regex) {
+        StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length() && (regex.charAt(i + 1) == '.' || regex.charAt(i + 1) == '$')) {
+                literal.append(regex.charAt(++i));
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                literal.append(c);
+            } else {
+                return null;
+            }
+        }
+        return literal.toString();
+    }
+}
@@ -1,80 +1,122 @@
 package io.github.benjaminsoelberg.jft;
 
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * The class loaders and their classes, as a tree following the parent of each class loader.
+ * <p>
+ * Classes can be added from multiple threads at a time. Nodes are created without locking the tree, and the classes
+ * of each node are kept sorted by name as they are added, so walking the tree never sorts nor copies anything.
+ */
 public final class ClassTree {
-    private final Map<ClassLoader, Node> root = new HashMap<>();
+    // Concurrent skip list maps don't allow null values
+    private static final ByteBuffer NO_BYTECODE = ByteBuffer.allocate(0);
+
+    private final Node bootstrap = new Node(null, "");
+    // Every node but the bootstrap, as concurrent maps don't allow null keys
+    private final ConcurrentMap<ClassLoader, Node> nodes = new ConcurrentHashMap<>();
 
     public static class Node {
         private final ClassLoader loader;
-        private final List<Node> children = new ArrayList<>();
-        private final Map<Class<?>, byte[]> classes = new HashMap<>();
+        private final String name;
+        private final String path;
+        private final List<Node> children = new CopyOnWriteArrayList<>();
+        private final NavigableMap<Class<?>, ByteBuffer> classes = new ConcurrentSkipListMap<>(Comparator.comparing(Class::getName));
 
-        public Node(ClassLoader loader) {
+        private Node(ClassLoader loader, String parentPath) {
             this.loader = loader;
+            this.name = Utils.toClassLoaderName(loader);
+            this.path = parentPath + name + "/";
         }
 
-        public void add(Node node) {
+        private void add(Node node) {
             children.add(node);
         }
 
-        public void add(Class<?> clazz, byte[] bytecode) {
+        /**
+         * Adds a class to this class loader node
+         *
+         * @param clazz    the class
+         * @param bytecode of the class, on or off the heap, or null if the bytecode was streamed directly to the jar
+         */
+        public void add(Class<?> clazz, ByteBuffer bytecode) {
             // "putIfAbsent" ensures uniqueness
-            classes.putIfAbsent(clazz, bytecode);
+            classes.putIfAbsent(clazz, bytecode == null ? NO_BYTECODE : bytecode);
         }
 
         public ClassLoader getLoader() {
             return loader;
         }
 
+        /**
+         * @return the display name of the class loader, as returned by {@link Utils#toClassLoaderName(ClassLoader)}
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the path of the class loader in the jar, as returned by {@link Utils#toClassLoaderPath(ClassLoader)}
+         */
+        public String getPath() {
+            return path;
+        }
+
         public List<Node> getChildren() {
-            return children;
+            return Collections.unmodifiableList(children);
         }
 
-        public Map<Class<?>, byte[]> getClasses() {
-            return classes.entrySet()
-                    .stream()
-                    .sorted(Map.Entry.comparingByKey(Comparator.comparing(Class::getName)))
-                    .collect(Collectors.toMap(
-                            Map.Entry::getKey,
-                            Map.Entry::getValue,
-                            (a, b) -> a, // Dummy merge
-                            LinkedHashMap::new  // Preserve order
-                    ));
+        /**
+         * @return a live view of the classes sorted by name
+         */
+        public NavigableSet<Class<?>> getClasses() {
+            return Collections.unmodifiableNavigableSet(classes.navigableKeySet());
         }
-    }
 
-    public ClassTree() {
-        // Create explicit bootstrap root
-        Node bootstrap = new Node(null);
-        root.put(null, bootstrap);
+        /**
+         * Visits the classes sorted by name
+         *
+         * @param action given each class and its bytecode, or null if the bytecode was streamed directly to the jar
+         */
+        public void forEachClass(BiConsumer<Class<?>, ByteBuffer> action) {
+            classes.forEach((clazz, bytecode) -> action.accept(clazz, bytecode == NO_BYTECODE ? null : bytecode));
+        }
     }
 
-    public synchronized void add(Class<?> clazz, byte[] bytecode) {
-        ClassLoader loader = clazz.getClassLoader();
-        Node node = ensureNode(loader);
-        node.add(clazz, bytecode);
+    public void add(Class<?> clazz, ByteBuffer bytecode) {
+        getNode(clazz.getClassLoader()).add(clazz, bytecode);
     }
 
-    private Node ensureNode(ClassLoader loader) {
-        if (root.containsKey(loader)) {
-            return root.get(loader);
+    /**
+     * @param loader the class loader, null for the bootstrap class loader
+     * @return the node of the class loader, created along with its parents if needed
+     */
+    public Node getNode(ClassLoader loader) {
+        if (loader == null) {
+            return bootstrap;
         }
-
-        Node node = new Node(loader);
-        root.put(loader, node);
-
-        if (loader != null) {
-            Node parent = ensureNode(loader.getParent());
-            parent.add(node);
+        Node node = nodes.get(loader);
+        if (node != null) {
+            return node;
         }
 
-        return node;
+        // The parent must exist first, but can't be created inside computeIfAbsent as it updates the same map
+        Node parent = getNode(loader.getParent());
+        return nodes.computeIfAbsent(loader, key -> {
+            Node created = new Node(key, parent.getPath());
+            parent.add(created);
+            return created;
+        });
     }
 
     public Node getRoot() {
-        return root.get(null);
+        return bootstrap;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+
+/**
+ * Prints lines to the console from a background thread, so logging never holds up the dump.
+ * <p>
+ * Lines waiting to be printed are kept in a bounded ring buffer. If the console can't keep up the oldest lines are
+ * dropped, and the number of dropped lines is printed in their place.
+ */
+class ConsoleWriter implements Closeable {
+    public static final int CAPACITY = 4096;
+
+    private final PrintStream out;
+    private final Object[] ring;
+    private final Thread thread;
+    private int head;
+    private int count;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * @param out      where lines are printed
+     * @param capacity number of lines that can wait to be printed before the oldest are dropped
+     */
+    ConsoleWriter(PrintStream out, int capacity) {
+        this.out = out;
+        this.ring = new Object[capacity];
+        thread = new Thread(this::run, "jft-console");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a line without blocking.
+     *
+     * @param line printed through its toString method, on the console thread
+     */
+    synchronized void println(Object line) {
+        if (closed) {
+            return;
+        }
+        if (count == ring.length) {
+            head = (head + 1) % ring.length;
+            count--;
+            dropped++;
+        }
+        ring[(head + count) % ring.length] = line;
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * Prints the remaining lines and stops the console thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        Object[] lines = new Object[ring.length];
+        while (true) {
+            int size;
+            long skipped;
+            synchronized (this) {
+                while (count == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                if (count == 0) {
+                    return;
+                }
+                // Take everything at once and print it without holding the lock
+                size = count;
+                for (int i = 0; i < size; i++) {
+                    lines[i] = ring[(head + i) % ring.length];
+                    ring[(head + i) % ring.length] = null;
+                }
+                head = (head + size) % ring.length;
+                count = 0;
+                skipped = dropped;
+                dropped = 0;
+            }
+
+            if (skipped > 0) {
+                out.println(String.format("... %d lines dropped as the console could not keep up", skipped));
+            }
+            for (int i = 0; i < size; i++) {
+                out.println(lines[i]);
+                lines[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content addressed store keeping a single copy of classes with identical bytecode.
+ * <p>
+ * Application servers often load the same library into many class loaders. The first class seen with a given hash
+ * becomes the canonical copy, which is the only one written to the jar. All other paths with the same hash are listed
+ * in a "path TAB canonical path" index entry instead.
+ */
+public class DedupStore {
+    public static final String ENTRY_NAME = "dedup.index";
+
+    private final boolean keepBytecode;
+    private final Map<ByteBuffer, Blob> blobs = new HashMap<>();
+    private final Map<String, String> duplicates = new TreeMap<>();
+    private long savedBytes;
+
+    private static final class Blob {
+        private final String path;
+        private final byte[] bytecode;
+
+        private Blob(String path, byte[] bytecode) {
+            this.path = path;
+            this.bytecode = bytecode;
+        }
+    }
+
+    /**
+     * @param keepBytecode true if the canonical bytecode should be kept, allowing duplicates to share it in memory
+     */
+    public DedupStore(boolean keepBytecode) {
+        this.keepBytecode = keepBytecode;
+    }
+
+    /**
+     * Adds a class to the store.
+     *
+     * @param path     of the class in the jar
+     * @param hash     of the bytecode
+     * @param bytecode of the class
+     * @return the canonical bytecode if kept, otherwise the given bytecode
+     */
+    public byte[] add(String path, byte[] hash, byte[] bytecode) {
+        ByteBuffer key = ByteBuffer.wrap(hash);
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            blobs.put(key, new Blob(path, keepBytecode ? bytecode : null));
+            return bytecode;
+        }
+
+        if (!blob.path.equals(path)) {
+            duplicates.put(path, blob.path);
+            savedBytes += bytecode.length;
+        }
+        return keepBytecode ? blob.bytecode : bytecode;
+    }
+
+    /**
+     * @param path of the class in the jar
+     * @return true if the path is a duplicate and should be written to the index rather than the jar
+     */
+    public boolean isDuplicate(String path) {
+        return duplicates.containsKey(path);
+    }
+
+    public int getDuplicates() {
+        return duplicates.size();
+    }
+
+    /**
+     * @return the size of the bytecode of all duplicates
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public byte[] toBytes() {
+        StringBuilder sb = new StringBuilder(duplicates.size() * 128);
+        duplicates.forEach((path, canonical) -> sb.append(path).append('\t').append(canonical).append('\n'));
+        return Utils.fromUtf8String(sb.toString());
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Receives a dump streamed by the agent, so the jar is written on this side instead of inside the target.
+ * <p>
+ * A loopback port is opened together with a random token, both passed to the agent, which connects and sends the token
+ * followed by the jar. Connections that don't start with the token are dropped, as any local process can connect.
+ * <p>
+ * The jar ends with its central directory, so a dump cut off by a crashing agent or a reset connection is told apart
+ * from a complete one by opening the received jar. A cut off dump is kept, but reported as an error.
+ */
+public class DumpReceiver implements Closeable {
+    // Time a connection has to send the token, or for the agent to connect once it has returned
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    private static final int ACCEPT_POLL_MILLIS = 250;
+
+    private final File destination;
+    private final ServerSocket server;
+    private final String token;
+    private final Thread thread;
+    private volatile boolean agentReturned;
+    private long received;
+    private Throwable error;
+
+    /**
+     * Opens the port and starts waiting for the agent.
+     *
+     * @param destination where the jar is written
+     * @throws IOException if the port couldn't be opened
+     */
+    public DumpReceiver(File destination) throws IOException {
+        this.destination = destination;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        token = Utils.toHex(random);
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(ACCEPT_POLL_MILLIS);
+        thread = new Thread(this::receive, "jft-receiver-" + server.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Waits for the dump to be received, to be called once the agent has returned.
+     *
+     * @return the size of the jar
+     * @throws IOException          if the dump couldn't be received, was cut off or the agent never connected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long await() throws IOException, InterruptedException {
+        agentReturned = true;
+        thread.join();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException("Failed to receive the dump", error);
+        }
+        return received;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * @throws IOException if the received jar is incomplete
+     */
+    private void verify() throws IOException {
+        try {
+            // Opening the jar reads the central directory
+            new ZipFile(destination).close();
+        } catch (ZipException ze) {
+            throw new IOException(String.format("The dump was cut off after %d bytes, the partial jar is kept in %s", received, destination), ze);
+        }
+    }
+
+    private void receive() {
+        byte[] expected = Utils.fromUtf8String(token + "\n");
+        try {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException ste) {
+                    // A connection made before the agent returned is always accepted first
+                    if (agentReturned) {
+                        throw new IOException("The agent never connected");
+                    }
+                    continue;
+                }
+
+                try (socket) {
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                    InputStream in = socket.getInputStream();
+                    if (!MessageDigest.isEqual(expected, in.readNBytes(expected.length))) {
+                        continue;
+                    }
+                    socket.setSoTimeout(0);
+                    try (OutputStream out = new FileOutputStream(destination)) {
+                        received = in.transferTo(out);
+                    }
+                    verify();
+                    return;
+                } catch (SocketTimeoutException ste) {
+                    // Never sent the token
+                }
+            }
+        } catch (Throwable th) {
+            error = th;
+        } finally {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // Nothing left to receive
+            }
+        }
+    }
+}
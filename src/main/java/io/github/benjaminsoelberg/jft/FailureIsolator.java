@@ -0,0 +1,70 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retransforms batches of classes and isolates the classes that makes a retransformation fail.
+ * <p>
+ * Some classes can't be retransformed, even when no bytecode is changed, and the JVM will then fail the whole batch
+ * without telling which class was the culprit. A failed batch is therefore split in halves which are retransformed on
+ * their own, recursively, until the failing classes are found. Finding k failing classes in a batch of n classes takes
+ * O(k log n) retransformations, and the failing classes are quarantined so they are never retransformed again.
+ */
+public class FailureIsolator {
+    private final Instrumentation instrumentation;
+    private final Map<Class<?>, Throwable> quarantined = new LinkedHashMap<>();
+    private int retransformations;
+
+    public FailureIsolator(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Retransforms a batch of classes, isolating the classes that fails with a {@link ClassFormatError} or
+     * {@link InternalError}. All other classes in the batch will have been retransformed when this method returns.
+     *
+     * @param batch to retransform
+     * @return true if the batch was retransformed in one go, false if it had to be split
+     * @throws UnmodifiableClassException if a class can't be modified
+     */
+    public boolean retransform(Class<?>[] batch) throws UnmodifiableClassException {
+        if (batch.length == 0) {
+            return true;
+        }
+
+        try {
+            retransformations++;
+            instrumentation.retransformClasses(batch);
+            return true;
+        } catch (ClassFormatError | InternalError e) {
+            // Some transformations might fail even so no bytecode was changed
+            if (batch.length == 1) {
+                quarantined.put(batch[0], e);
+            } else {
+                int half = batch.length / 2;
+                retransform(Arrays.copyOfRange(batch, 0, half));
+                retransform(Arrays.copyOfRange(batch, half, batch.length));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the classes that failed to retransform, together with the reason, in the order they were found
+     */
+    public Map<Class<?>, Throwable> getQuarantined() {
+        return Collections.unmodifiableMap(quarantined);
+    }
+
+    /**
+     * @return the number of calls to retransformClasses, including the ones isolating failures
+     */
+    public int getRetransformations() {
+        return retransformations;
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * SHA-256 hashes of dumped classes keyed by their path in the jar, like "[bootloader]/java/lang/String.class".
+ * <p>
+ * The manifest is stored in the jar in the format used by sha256sum, one "hash  path" line per class. A previous dump
+ * (or just its manifest) can be used as a baseline, in which case only new or changed classes are written to the jar.
+ */
+public class HashManifest {
+    public static final String ENTRY_NAME = "classes.sha256";
+
+    private final Map<String, byte[]> hashes = new TreeMap<>();
+
+    /**
+     * Hashes the bytecode of a class and adds it to the manifest.
+     *
+     * @param path     of the class in the jar
+     * @param bytecode of the class
+     * @return the hash
+     */
+    public byte[] add(String path, byte[] bytecode) {
+        byte[] hash = Utils.sha256(bytecode);
+        hashes.put(path, hash);
+        return hash;
+    }
+
+    /**
+     * @param path of the class in the jar
+     * @return the hash of the class or null if unknown
+     */
+    public byte[] get(String path) {
+        return hashes.get(path);
+    }
+
+    public Map<String, byte[]> getHashes() {
+        return Collections.unmodifiableMap(hashes);
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    public byte[] toBytes() {
+        StringBuilder sb = new StringBuilder(hashes.size() * 128);
+        hashes.forEach((path, hash) -> sb.append(Utils.toHex(hash).toLowerCase(Locale.ROOT)).append("  ").append(path).append('\n'));
+        return Utils.fromUtf8String(sb.toString());
+    }
+
+    /**
+     * Loads a manifest from either a previous dump or a manifest file. A dump without a manifest has all of its classes
+     * hashed instead.
+     *
+     * @param file jar or manifest file
+     * @return the manifest
+     * @throws IOException if the file couldn't be read
+     */
+    public static HashManifest load(File file) throws IOException {
+        if (!isZip(file)) {
+            try (InputStream in = new FileInputStream(file)) {
+                return parse(in);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            ZipEntry manifestEntry = zip.getEntry(ENTRY_NAME);
+            if (manifestEntry != null) {
+                try (InputStream in = zip.getInputStream(manifestEntry)) {
+                    return parse(in);
+                }
+            }
+
+            HashManifest manifest = new HashManifest();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        manifest.add(entry.getName(), in.readAllBytes());
+                    }
+                }
+            }
+            return manifest;
+        }
+    }
+
+    static boolean isZip(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+        }
+    }
+
+    private static HashManifest parse(InputStream in) throws IOException {
+        HashManifest manifest = new HashManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.indexOf(' ');
+            if (separator != 64) {
+                throw new IOException(String.format("Invalid manifest line [%s]", line));
+            }
+            String path = line.substring(separator).trim();
+            // sha256sum marks files hashed in binary mode with an asterisk
+            if (path.startsWith("*")) {
+                path = path.substring(1);
+            }
+            manifest.hashes.put(path, Utils.fromHex(line.substring(0, separator)));
+        }
+        return manifest;
+    }
+}
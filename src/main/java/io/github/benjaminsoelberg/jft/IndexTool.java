@@ -0,0 +1,125 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Command line access to dumps in the indexed format, see {@link IndexedDump}.
+ */
+public class IndexTool {
+
+    private static void showUsage() {
+        System.out.println("usage: java -cp JavaForensicsToolkit.jar " + IndexTool.class.getName() + " <command> <arguments>");
+        System.out.println();
+        System.out.println("commands:");
+        System.out.println("list dump" + IndexedDump.EXTENSION + " [regex]");
+        System.out.println("\tlist the class loader and name of every class, or of the classes with a name matching the regex");
+        System.out.println("loaders dump" + IndexedDump.EXTENSION + " class");
+        System.out.println("\tlist the class loaders having loaded the class");
+        System.out.println("extract dump" + IndexedDump.EXTENSION + " class [loader] destination.class");
+        System.out.println("\twrite the bytecode of the class, the loader is only needed if more than one loaded it");
+        System.out.println("to-jar dump" + IndexedDump.EXTENSION + " dump.jar");
+        System.out.println("\tconvert to the jar layout");
+        System.out.println("from-jar dump.jar dump" + IndexedDump.EXTENSION);
+        System.out.println("\tconvert the classes of a jar dump to the indexed format");
+    }
+
+    /**
+     * @param args command and its arguments
+     * @return the exit code
+     * @throws IOException if reading or writing failed
+     */
+    static int run(String[] args) throws IOException {
+        if (args.length < 3) {
+            showUsage();
+            return 1;
+        }
+
+        File file = new File(args[1]);
+        switch (args[0]) {
+            case "list":
+                if (args.length > 3) {
+                    break;
+                }
+                Pattern pattern = Pattern.compile(args.length == 3 ? args[2] : ".*");
+                try (IndexedDump dump = IndexedDump.open(file)) {
+                    for (int i = 0; i < dump.size(); i++) {
+                        String className = dump.getClassName(i);
+                        if (pattern.matcher(className).matches()) {
+                            System.out.println(dump.getLoader(i) + "\t" + className);
+                        }
+                    }
+                }
+                return 0;
+            case "loaders":
+                if (args.length != 3) {
+                    break;
+                }
+                try (IndexedDump dump = IndexedDump.open(file)) {
+                    List<String> loaders = dump.getLoaders(args[2]);
+                    loaders.forEach(System.out::println);
+                    return loaders.isEmpty() ? 1 : 0;
+                }
+            case "extract":
+                if (args.length != 4 && args.length != 5) {
+                    break;
+                }
+                try (IndexedDump dump = IndexedDump.open(file)) {
+                    String loader;
+                    if (args.length == 5) {
+                        loader = args[3];
+                    } else {
+                        List<String> loaders = dump.getLoaders(args[2]);
+                        if (loaders.size() != 1) {
+                            System.out.printf("%s was loaded by %d class loaders, one of them must be given%n", args[2], loaders.size());
+                            loaders.forEach(System.out::println);
+                            return 1;
+                        }
+                        loader = loaders.get(0);
+                    }
+                    ByteBuffer bytecode = dump.getBytecode(args[2], loader);
+                    if (bytecode == null) {
+                        System.out.printf("%s wasn't loaded by %s%n", args[2], loader);
+                        return 1;
+                    }
+                    File destination = new File(args[args.length - 1]);
+                    try (FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        while (bytecode.hasRemaining()) {
+                            out.write(bytecode);
+                        }
+                    }
+                    System.out.printf("Extracted %s%s to %s%n", loader, args[2], destination);
+                }
+                return 0;
+            case "to-jar":
+                if (args.length != 3) {
+                    break;
+                }
+                try (IndexedDump dump = IndexedDump.open(file)) {
+                    dump.toJar(new File(args[2]), 1, Deflater.DEFAULT_COMPRESSION);
+                    System.out.printf("Converted %d classes to %s%n", dump.size(), args[2]);
+                }
+                return 0;
+            case "from-jar":
+                if (args.length != 3) {
+                    break;
+                }
+                System.out.printf("Converted %d classes to %s%n", IndexedDump.fromJar(file, new File(args[2])), args[2]);
+                return 0;
+            default:
+                break;
+        }
+        showUsage();
+        return 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.exit(run(args));
+    }
+}
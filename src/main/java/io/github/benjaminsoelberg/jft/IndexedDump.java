@@ -0,0 +1,294 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Read only view of a dump in the indexed format, for querying snapshots too large to unpack.
+ * <p>
+ * The file starts with a fixed header, followed by the bytecode of every class, the UTF-8 class and loader names, and
+ * an index sorted by class name and loader:
+ * <pre>
+ * header  magic "JFTINDEX", version, class count, names offset, index offset
+ * blobs   bytecode of each class
+ * names   class names and loader paths, each loader only once
+ * index   per class: name offset, name length, loader offset, loader length, bytecode offset, bytecode length
+ * </pre>
+ * All numbers are little endian. The file is memory mapped, a lookup is a binary search over the index which doesn't
+ * decode any names, and bytecode is returned as a slice of the mapping rather than a copy. Blobs are mapped in
+ * overlapping chunks, so files larger than a single mapping can be read.
+ */
+public class IndexedDump implements Closeable {
+    public static final String EXTENSION = ".jfti";
+
+    static final byte[] MAGIC = Utils.fromUtf8String("JFTINDEX");
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 28;
+
+    private static final long CHUNK_SIZE = 1L << 30;
+    private static final long CHUNK_OVERLAP = 64L * 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int count;
+    private final ByteBuffer names;
+    private final ByteBuffer index;
+    private final long blobsEnd;
+    private final long chunkSize;
+    private final long chunkOverlap;
+    private final ByteBuffer[] chunks;
+
+    private IndexedDump(File file, long chunkSize, long chunkOverlap) throws IOException {
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new ZipException("Not an indexed dump: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new ZipException("Not an indexed dump: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new ZipException(String.format("Unsupported indexed dump version %d in %s", version, file));
+            }
+            count = header.getInt();
+            long namesOffset = header.getLong();
+            long indexOffset = header.getLong();
+            if (count < 0 || namesOffset < HEADER_SIZE || indexOffset < namesOffset || indexOffset - namesOffset > Integer.MAX_VALUE
+                || indexOffset + (long) count * RECORD_SIZE != size) {
+                throw new ZipException("Corrupt indexed dump: " + file);
+            }
+
+            names = channel.map(FileChannel.MapMode.READ_ONLY, namesOffset, indexOffset - namesOffset);
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            blobsEnd = namesOffset;
+            chunks = new ByteBuffer[(int) ((blobsEnd - HEADER_SIZE + chunkSize - 1) / chunkSize)];
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file to open
+     * @return the opened dump
+     * @throws IOException if the file couldn't be read or isn't an indexed dump
+     */
+    public static IndexedDump open(File file) throws IOException {
+        return new IndexedDump(file, CHUNK_SIZE, CHUNK_OVERLAP);
+    }
+
+    static IndexedDump open(File file, long chunkSize, long chunkOverlap) throws IOException {
+        return new IndexedDump(file, chunkSize, chunkOverlap);
+    }
+
+    /**
+     * @return the number of classes in the dump
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i position in the index, from 0 to {@link #size()}
+     * @return the java class name
+     */
+    public String getClassName(int i) {
+        return getString(record(i));
+    }
+
+    /**
+     * @param i position in the index, from 0 to {@link #size()}
+     * @return the class loader path, like "[bootloader]/[platform]/"
+     */
+    public String getLoader(int i) {
+        return getString(record(i) + 8);
+    }
+
+    /**
+     * @param i position in the index, from 0 to {@link #size()}
+     * @return the read only bytecode, sharing the memory of the mapped file
+     * @throws IOException if the bytecode couldn't be mapped
+     */
+    public ByteBuffer getBytecode(int i) throws IOException {
+        int record = record(i);
+        long offset = index.getLong(record + 16);
+        int length = index.getInt(record + 24);
+        if (offset < HEADER_SIZE || offset + length > blobsEnd || length < 0) {
+            throw new ZipException("Corrupt indexed dump: " + file);
+        }
+
+        long relative = offset - HEADER_SIZE;
+        int chunk = (int) (relative / chunkSize);
+        int position = (int) (relative % chunkSize);
+        if (position + (long) length > chunkSize + chunkOverlap) {
+            // Rare class larger than the overlap, crossing the end of its chunk
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        ByteBuffer slice = getChunk(chunk).duplicate();
+        slice.position(position).limit(position + length);
+        return slice.slice();
+    }
+
+    /**
+     * @param className java class name, like "java.lang.String"
+     * @param loader    class loader path, like "[bootloader]/"
+     * @return the read only bytecode or null if the class loader didn't load the class
+     * @throws IOException if the bytecode couldn't be mapped
+     */
+    public ByteBuffer getBytecode(String className, String loader) throws IOException {
+        int i = find(Utils.fromUtf8String(className), Utils.fromUtf8String(loader));
+        return i < 0 ? null : getBytecode(i);
+    }
+
+    /**
+     * @param className java class name, like "java.lang.String"
+     * @return the position of the first class with the name, or (-(insertion point) - 1) if there is none
+     */
+    public int find(String className) {
+        return find(Utils.fromUtf8String(className), null);
+    }
+
+    /**
+     * @param className java class name, like "java.lang.String"
+     * @return the paths of all class loaders having loaded a class with the name
+     */
+    public List<String> getLoaders(String className) {
+        byte[] name = Utils.fromUtf8String(className);
+        List<String> loaders = new ArrayList<>();
+        for (int i = find(name, null); i >= 0 && i < count && compare(record(i), name) == 0; i++) {
+            loaders.add(getLoader(i));
+        }
+        return loaders;
+    }
+
+    /**
+     * Converts the dump into the jar layout, one entry per class under its class loader path.
+     *
+     * @param jar     to write
+     * @param threads compressing the entries
+     * @param level   of compression
+     * @throws IOException if reading or writing failed
+     */
+    public void toJar(File jar, int threads, int level) throws IOException {
+        try (JarWriter writer = new JarWriter(new FileOutputStream(jar), threads, level)) {
+            for (int i = 0; i < count; i++) {
+                // Compressed straight from the mapping, which stays open until the writer is done
+                writer.write(getLoader(i) + Utils.toNativeClassName(getClassName(i)) + ".class", getBytecode(i));
+            }
+        }
+    }
+
+    /**
+     * Converts the classes of a dump in the jar layout, other entries like the report are skipped.
+     *
+     * @param jar         to read
+     * @param destination indexed dump to write
+     * @return the number of classes converted
+     * @throws IOException if reading or writing failed
+     */
+    public static int fromJar(File jar, File destination) throws IOException {
+        try (ZipFile zip = new ZipFile(jar); IndexedDumpWriter writer = new IndexedDumpWriter(destination)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String path = entry.getName();
+                int loaderEnd = path.lastIndexOf("]/") + 2;
+                if (entry.isDirectory() || !path.startsWith("[") || loaderEnd < 2 || !path.endsWith(".class")) {
+                    continue;
+                }
+                String className = Utils.toJavaClassName(path.substring(loaderEnd, path.length() - ".class".length()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    writer.add(className, path.substring(0, loaderEnd), in.readAllBytes());
+                }
+            }
+            return writer.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mappings are released when they are garbage collected
+        channel.close();
+    }
+
+    private ByteBuffer getChunk(int chunk) throws IOException {
+        if (chunks[chunk] == null) {
+            long start = HEADER_SIZE + chunk * chunkSize;
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize + chunkOverlap, blobsEnd - start));
+        }
+        return chunks[chunk];
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException(String.valueOf(i));
+        }
+        return i * RECORD_SIZE;
+    }
+
+    private String getString(int field) {
+        byte[] bytes = new byte[index.getInt(field + 4)];
+        names.duplicate().position(index.getInt(field)).get(bytes);
+        return Utils.toUtf8String(bytes);
+    }
+
+    /**
+     * Binary search for the first record with the name, and the loader if given.
+     */
+    private int find(byte[] name, byte[] loader) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(record(mid), name);
+            if (order == 0 && loader != null) {
+                order = compare(record(mid) + 8, loader);
+            }
+            if (order < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < count && compare(record(low), name) == 0 && (loader == null || compare(record(low) + 8, loader) == 0)) {
+            return low;
+        }
+        return -(low + 1);
+    }
+
+    private int compare(int field, byte[] key) {
+        int offset = index.getInt(field);
+        int length = index.getInt(field + 4);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int order = Integer.compare(names.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Writes an {@link IndexedDump}.
+ * <p>
+ * Bytecode is appended to the file as it is added, so only the names and offsets of the classes are kept in memory.
+ * The names and the sorted index are written when the writer is closed, followed by the header.
+ * <p>
+ * Instances are not thread safe, classes must be added from one thread at a time.
+ */
+public class IndexedDumpWriter implements Closeable {
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    private long offset = IndexedDump.HEADER_SIZE;
+
+    private static final class Entry {
+        private final byte[] name;
+        private final byte[] loader;
+        private final long offset;
+        private final int length;
+
+        private Entry(String name, String loader, long offset, int length) {
+            this.name = Utils.fromUtf8String(name);
+            this.loader = Utils.fromUtf8String(loader);
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * @param file to write, replaced if it exists
+     * @throws IOException if the file couldn't be created
+     */
+    public IndexedDumpWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        channel.position(IndexedDump.HEADER_SIZE);
+        // Not closed on its own, as that would close the channel
+        out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+    }
+
+    /**
+     * @param className java class name, like "java.lang.String"
+     * @param loader    class loader path as used in the jar, like "[bootloader]/"
+     * @param bytecode  of the class
+     * @throws IOException if the class is a duplicate or if writing failed
+     */
+    public void add(String className, String loader, byte[] bytecode) throws IOException {
+        if (!keys.add(loader + className)) {
+            throw new ZipException("duplicate entry: " + loader + className);
+        }
+        out.write(bytecode);
+        entries.add(new Entry(className, loader, offset, bytecode.length));
+        offset += bytecode.length;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            entries.sort((a, b) -> {
+                int order = Arrays.compareUnsigned(a.name, b.name);
+                return order != 0 ? order : Arrays.compareUnsigned(a.loader, b.loader);
+            });
+
+            // Names first, each loader only once as most classes share a few loaders
+            long namesOffset = offset;
+            Map<String, Integer> loaders = new HashMap<>();
+            int[] nameOffsets = new int[entries.size()];
+            int[] loaderOffsets = new int[entries.size()];
+            int names = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                nameOffsets[i] = names;
+                out.write(entry.name);
+                names = Math.addExact(names, entry.name.length);
+                String loaderName = Utils.toUtf8String(entry.loader);
+                Integer loader = loaders.get(loaderName);
+                if (loader == null) {
+                    loader = names;
+                    loaders.put(loaderName, loader);
+                    out.write(entry.loader);
+                    names = Math.addExact(names, entry.loader.length);
+                }
+                loaderOffsets[i] = loader;
+            }
+
+            long indexOffset = namesOffset + names;
+            ByteBuffer record = ByteBuffer.allocate(IndexedDump.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                record.clear();
+                record.putInt(nameOffsets[i]).putInt(entry.name.length);
+                record.putInt(loaderOffsets[i]).putInt(entry.loader.length);
+                record.putLong(entry.offset).putInt(entry.length);
+                out.write(record.array());
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(IndexedDump.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(IndexedDump.MAGIC).putInt(IndexedDump.VERSION).putInt(entries.size()).putLong(namesOffset).putLong(indexOffset);
+            header.flip();
+            channel.write(header, 0);
+        } finally {
+            channel.close();
+        }
+    }
+}
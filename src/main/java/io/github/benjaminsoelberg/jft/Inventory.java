@@ -0,0 +1,80 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A census of the loaded classes, taken from the class tree without touching any bytecode.
+ * <p>
+ * The inventory is stored in the jar as tab separated lines, easy to collect from many JVMs and compare:
+ * <pre>
+ * loader        path          classes  packages   for every class loader, the path holding its parent chain
+ * package       path          package  classes    for every package of a class loader
+ * loader-class  class name    loaders  classes    for every class loader class, many loaders of a class may mean a leak
+ * </pre>
+ * The classes of a node are sorted by name, but those of a package don't always follow each other, as '.' sorts before
+ * letters and puts a package like {@code a.b.c} between {@code a.b.C} and {@code a.b.d}, so they are counted per
+ * package of each node. The package is taken from the class name rather than asking the class for it.
+ */
+public final class Inventory {
+    public static final String ENTRY_NAME = "inventory.txt";
+
+    private final StringBuilder lines = new StringBuilder();
+    // Class loader class name to the number of loaders and their classes
+    private final Map<String, int[]> loaderClasses = new TreeMap<>();
+    private int loaders;
+    private int classes;
+    private int packages;
+
+    public Inventory(ClassTree tree) {
+        add(tree.getRoot());
+        loaderClasses.forEach((name, counts) -> lines.append("loader-class\t").append(name).append('\t').append(counts[0]).append('\t').append(counts[1]).append('\n'));
+    }
+
+    private void add(ClassTree.Node node) {
+        Map<String, Integer> histogram = new TreeMap<>();
+        int total = 0;
+        for (Class<?> clazz : node.getClasses()) {
+            String name = clazz.getName();
+            int dot = name.lastIndexOf('.');
+            histogram.merge(dot < 0 ? "" : name.substring(0, dot), 1, Integer::sum);
+            total++;
+        }
+        int distinct = histogram.size();
+
+        lines.append("loader\t").append(node.getPath()).append('\t').append(total).append('\t').append(distinct).append('\n');
+        histogram.forEach((pkg, count) -> lines.append("package\t").append(node.getPath()).append('\t').append(pkg).append('\t').append(count).append('\n'));
+        loaders++;
+        classes += total;
+        packages += distinct;
+        if (node.getLoader() != null) {
+            int[] counts = loaderClasses.computeIfAbsent(node.getLoader().getClass().getName(), key -> new int[2]);
+            counts[0]++;
+            counts[1] += total;
+        }
+
+        node.getChildren().forEach(this::add);
+    }
+
+    /**
+     * @return the number of class loaders, including those without classes of their own
+     */
+    public int getLoaders() {
+        return loaders;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the number of packages, counting a package once for every class loader it is found in
+     */
+    public int getPackages() {
+        return packages;
+    }
+
+    public byte[] toBytes() {
+        return Utils.fromUtf8String(lines.toString());
+    }
+}
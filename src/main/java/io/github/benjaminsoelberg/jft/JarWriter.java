@@ -0,0 +1,408 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a jar (zip) file where entries are compressed by a pool of deflater threads.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} can only compress entries itself, one at a time, which is why this class
+ * writes the zip format on its own. Entries are compressed in parallel but always written in the order they were added,
+ * making the output deterministic regardless of the number of threads. Entries too large to keep in memory can be
+ * streamed, in which case their sizes and checksum follow the data in a data descriptor. Zip64 records are written
+ * when there are too many entries, or the file is too large, for the plain zip format.
+ * <p>
+ * Instances are not thread safe, entries must be added from one thread at a time.
+ */
+public class JarWriter implements Closeable {
+    // Level 0 stores entries without any compression
+    public static final int STORED = 0;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    // Upper bound of compressed entries waiting to be written per thread
+    private static final int IN_FLIGHT_PER_THREAD = 8;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService deflaters;
+    private final int maxInFlight;
+    private final Queue<Future<Entry>> inFlight = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final int dosTime;
+    private final int dosDate;
+    private long offset;
+
+    private static final class Entry {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private ByteBuffer data;
+        private long offset;
+
+        private Entry(String name, int method, long crc, long size, ByteBuffer data) {
+            this.name = Utils.fromUtf8String(name);
+            this.flags = UTF8_FLAG;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = data.remaining();
+            this.data = data;
+        }
+
+        private Entry(String name) {
+            this.name = Utils.fromUtf8String(name);
+            this.flags = UTF8_FLAG | DATA_DESCRIPTOR_FLAG;
+            this.method = METHOD_DEFLATED;
+        }
+    }
+
+    /**
+     * Writes the content of a streamed entry.
+     */
+    @FunctionalInterface
+    public interface EntryWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * @param out     where the jar is written, will be closed when this writer is closed
+     * @param threads number of deflater threads, 1 compresses entries on the calling thread
+     * @param level   compression level from 1 to 9 or {@link Deflater#DEFAULT_COMPRESSION}, {@link #STORED} disables
+     *                compression
+     */
+    public JarWriter(OutputStream out, int threads, int level) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.level = level;
+        if (threads > 1) {
+            AtomicInteger id = new AtomicInteger();
+            deflaters = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "jft-deflater-" + id.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            deflaters = null;
+        }
+        maxInFlight = Math.max(1, threads) * IN_FLIGHT_PER_THREAD;
+
+        LocalDateTime now = LocalDateTime.now();
+        dosTime = now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() / 2;
+        dosDate = (now.getYear() - 1980) << 9 | now.getMonthValue() << 5 | now.getDayOfMonth();
+    }
+
+    /**
+     * Adds an entry to the jar. The entry is compressed in the background if more than one thread was requested, and
+     * the data must therefore not be modified afterwards.
+     *
+     * @param name of the entry
+     * @param data of the entry
+     * @throws IOException if the entry is a duplicate or if writing failed
+     */
+    public void write(String name, byte[] data) throws IOException {
+        write(name, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Adds an entry to the jar, read from the remaining bytes of the buffer. Direct and memory mapped buffers are
+     * compressed without first being copied to the heap. The buffer itself isn't modified, but its content must not be
+     * modified until the entry has been written.
+     *
+     * @param name of the entry
+     * @param data of the entry
+     * @throws IOException if the entry is a duplicate or if writing failed
+     */
+    public void write(String name, ByteBuffer data) throws IOException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+
+        if (deflaters == null) {
+            writeEntry(compress(name, data));
+            return;
+        }
+
+        inFlight.add(deflaters.submit(() -> compress(name, data)));
+        // Write what is ready, but only wait for the deflaters if too much is in flight
+        while (!inFlight.isEmpty() && (inFlight.peek().isDone() || inFlight.size() > maxInFlight)) {
+            writeEntry(await(inFlight.poll()));
+        }
+    }
+
+    /**
+     * Adds an entry to the jar by streaming its content, without ever holding all of it in memory. Entries added
+     * before are written first, and the content is compressed on the calling thread.
+     * <p>
+     * Streamed entries are always deflated, at level 0 when compression is disabled, as data descriptors can't be used
+     * with stored entries.
+     *
+     * @param name   of the entry
+     * @param writer writing the content of the entry
+     * @throws IOException if the entry is a duplicate or if writing failed
+     */
+    public void write(String name, EntryWriter writer) throws IOException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        while (!inFlight.isEmpty()) {
+            writeEntry(await(inFlight.poll()));
+        }
+
+        Entry entry = new Entry(name);
+        entry.offset = offset;
+        writeLocalHeader(entry);
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(new EntryOutputStream(), deflater, 8 * 1024);
+            writer.writeTo(new CheckedOutputStream(deflated, crc));
+            deflated.finish();
+            entry.crc = crc.getValue();
+            entry.size = deflater.getBytesRead();
+            entry.compressedSize = deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+        writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        entries.add(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!inFlight.isEmpty()) {
+                writeEntry(await(inFlight.poll()));
+            }
+            writeCentralDirectory();
+        } finally {
+            if (deflaters != null) {
+                deflaters.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    private Entry compress(String name, ByteBuffer data) {
+        int size = data.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if (level == STORED) {
+            return new Entry(name, METHOD_STORED, crc.getValue(), size, data.duplicate());
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data.duplicate());
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, size / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return new Entry(name, METHOD_DEFLATED, crc.getValue(), size, ByteBuffer.wrap(buffer, 0, length));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Entry await(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing jar entries", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Failed to compress jar entry", ee.getCause());
+        }
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        entry.offset = offset;
+        writeLocalHeader(entry);
+        writeBytes(entry.data);
+        // Only the central directory information is kept
+        entry.data = null;
+        entries.add(entry);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        // Sizes and checksum of streamed entries are zero here and written in the data descriptor instead
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeShort(dosTime);
+        writeShort(dosDate);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        writeShort(0); // Extra field length
+        writeBytes(entry.name);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = offset;
+        for (Entry entry : entries) {
+            boolean zip64 = entry.offset >= ZIP64_MAGIC;
+            writeInt(CENTRAL_FILE_HEADER_SIGNATURE);
+            writeShort(zip64 ? ZIP64_VERSION : VERSION); // Version made by
+            writeShort(zip64 ? ZIP64_VERSION : VERSION); // Version needed to extract
+            writeShort(entry.flags);
+            writeShort(entry.method);
+            writeShort(dosTime);
+            writeShort(dosDate);
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? 12 : 0); // Extra field length
+            writeShort(0); // Comment length
+            writeShort(0); // Disk number
+            writeShort(0); // Internal attributes
+            writeInt(0); // External attributes
+            writeInt(zip64 ? ZIP64_MAGIC : entry.offset);
+            writeBytes(entry.name);
+            if (zip64) {
+                // Zip64 extended information with the local header offset only, as entries are always smaller than 4GB
+                writeShort(0x0001);
+                writeShort(8);
+                writeLong(entry.offset);
+            }
+        }
+        long end = offset;
+        long size = end - start;
+
+        boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+        if (zip64) {
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(44); // Size of the remaining record
+            writeShort(ZIP64_VERSION); // Version made by
+            writeShort(ZIP64_VERSION); // Version needed to extract
+            writeInt(0); // Disk number
+            writeInt(0); // Disk with the central directory
+            writeLong(entries.size()); // Entries on this disk
+            writeLong(entries.size()); // Total entries
+            writeLong(size);
+            writeLong(start);
+
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            writeInt(0); // Disk with the zip64 end of central directory
+            writeLong(end);
+            writeInt(1); // Total number of disks
+        }
+
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0); // Disk number
+        writeShort(0); // Disk with the central directory
+        writeShort(zip64 ? ZIP64_MAGIC_COUNT : entries.size()); // Entries on this disk
+        writeShort(zip64 ? ZIP64_MAGIC_COUNT : entries.size()); // Total entries
+        writeInt(zip64 ? ZIP64_MAGIC : size);
+        writeInt(zip64 ? ZIP64_MAGIC : start);
+        writeShort(0); // Comment length
+        out.flush();
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xFFFFFFFFL);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        offset += bytes.length;
+    }
+
+    private void writeBytes(ByteBuffer bytes) throws IOException {
+        int length = bytes.remaining();
+        if (bytes.hasArray()) {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+        } else {
+            // Stored entries of direct buffers are copied through a small buffer, instead of all at once
+            byte[] transfer = new byte[Math.min(length, 8 * 1024)];
+            ByteBuffer source = bytes.duplicate();
+            while (source.hasRemaining()) {
+                int chunk = Math.min(transfer.length, source.remaining());
+                source.get(transfer, 0, chunk);
+                out.write(transfer, 0, chunk);
+            }
+        }
+        offset += length;
+    }
+
+    /**
+     * Compressed data of a streamed entry, counted as it is written and never closing the jar.
+     */
+    private final class EntryOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            offset++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            offset += len;
+        }
+
+        @Override
+        public void close() {
+            // The jar is closed by the writer
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.benjaminsoelberg.jft;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of a dump. Kept apart from {@link Metrics} so the jdk.jfr module is only needed when JFR events are
+ * requested.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Name("io.github.benjaminsoelberg.jft.Stage")
+    @Label("Dump Stage")
+    @Category("Java Forensics Toolkit")
+    @Description("A stage of a class dump")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Wall Time")
+        @Timespan
+        long wallTime;
+    }
+
+    @Name("io.github.benjaminsoelberg.jft.Batch")
+    @Label("Retransformation Batch")
+    @Category("Java Forensics Toolkit")
+    @Description("A batch of classes retransformed to dump them")
+    static class BatchEvent extends Event {
+        @Label("Classes")
+        int classes;
+
+        @Label("Pause")
+        @Timespan
+        long pause;
+    }
+
+    static void stage(String stage, long wallTime) {
+        StageEvent event = new StageEvent();
+        event.stage = stage;
+        event.wallTime = wallTime;
+        event.commit();
+    }
+
+    static void batch(int classes, long pause) {
+        BatchEvent event = new BatchEvent();
+        event.classes = classes;
+        event.pause = pause;
+        event.commit();
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the class loaders to dump, by the name they are dumped under, their class or the names of their parents.
+ * <p>
+ * The JVM can't list its class loaders without listing every class, so loaders are collected from the loaders of all
+ * loaded classes and their parents, which is still cheaper than filtering every class. Loaders the application reaches
+ * are added as well, even without classes of their own: the bootstrap, platform and system class loaders, the context
+ * class loader of each live thread and the loader of each thread's class. A loader reachable from a thread is never
+ * enough on its own, as a container may have other matching loaders, like a webapp between requests, that no thread
+ * is using.
+ * <p>
+ * A loader is selected if it matches any of the given patterns.
+ */
+public final class LoaderSelector {
+    private final Pattern name;
+    private final Pattern type;
+    private final Pattern parent;
+
+    /**
+     * @param name   matched against the name of the loader as dumped, without brackets, like "app", or null
+     * @param type   matched against the class name of the loader, or null
+     * @param parent matched against the name of each parent of the loader, or null
+     */
+    public LoaderSelector(Pattern name, Pattern type, Pattern parent) {
+        this.name = name;
+        this.type = type;
+        this.parent = parent;
+    }
+
+    /**
+     * @param instrumentation to find the loaders of all classes with
+     * @return the selected loaders, null meaning the bootstrap class loader
+     */
+    public List<ClassLoader> select(Instrumentation instrumentation) {
+        Set<ClassLoader> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        candidates.add(null);
+        addWithParents(candidates, ClassLoader.getSystemClassLoader());
+        for (Thread thread : getThreads()) {
+            addWithParents(candidates, thread.getContextClassLoader());
+            addWithParents(candidates, thread.getClass().getClassLoader());
+        }
+        ClassLoader previous = null;
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            ClassLoader loader = clazz.getClassLoader();
+            // Classes of the same loader tend to be listed together
+            if (loader != previous) {
+                addWithParents(candidates, loader);
+                previous = loader;
+            }
+        }
+        return select(candidates);
+    }
+
+    List<ClassLoader> select(Collection<ClassLoader> candidates) {
+        List<ClassLoader> selected = new ArrayList<>();
+        for (ClassLoader loader : candidates) {
+            if (test(loader)) {
+                selected.add(loader);
+            }
+        }
+        return selected;
+    }
+
+    boolean test(ClassLoader loader) {
+        if (name != null && name.matcher(getName(loader)).matches()) {
+            return true;
+        }
+        if (type != null && loader != null && type.matcher(loader.getClass().getName()).matches()) {
+            return true;
+        }
+        if (parent != null && loader != null) {
+            for (ClassLoader ancestor = loader.getParent(); ; ancestor = ancestor.getParent()) {
+                if (parent.matcher(getName(ancestor)).matches()) {
+                    return true;
+                }
+                if (ancestor == null) {
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the name of the loader in the dump, like "app" for "[app]"
+     */
+    private static String getName(ClassLoader loader) {
+        String name = Utils.toClassLoaderName(loader);
+        return name.substring(1, name.length() - 1);
+    }
+
+    private static void addWithParents(Set<ClassLoader> candidates, ClassLoader loader) {
+        // A loader already added has had its parents added as well
+        while (loader != null && candidates.add(loader)) {
+            loader = loader.getParent();
+        }
+    }
+
+    private static Thread[] getThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        // Threads may start while enumerating, so retry with more room until they fit
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        return Arrays.copyOf(threads, count);
+    }
+}
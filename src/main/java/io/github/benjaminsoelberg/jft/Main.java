@@ -1,15 +1,20 @@
 package io.github.benjaminsoelberg.jft;
 
 import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 //TODO: Test on windows (especially file separator)
 public class Main {
 
     private static void showUsage() {
-        System.out.println("usage: java -jar JavaForensicsToolkit.jar [-v] [-e] [-d destination.jar] [-s] [-p] [-f filter]... [-x] <pid>");
+        System.out.println("usage: java -jar JavaForensicsToolkit.jar [-v] [-e] [-d destination.jar] [-s] [-p] [-f filter]... [-x] [--stream] [--threads n] [--level n] [--max-pause-ms ms] [--batch-pause-ms ms] [--baseline dump.jar] [--dedup] [--jfr] [--max-time-ms ms] [--max-cpu-ms ms] [--max-heap-mb mb] [--resume dump.jar] [--all regex] [--parallel n] [--attach-timeout-ms ms] [--remote] [--resident] [--command dump|delta|shutdown] [--watch] [--segment-mb mb] [--max-segments n] [--indexed] [--off-heap-mb mb] [--signatures file] [--matches-only] [--verify] [--loader regex] [--loader-class regex] [--loader-parent regex] [--inventory] <pid>...");
         System.out.println();
         System.out.println("options:");
         System.out.println("-v\tverbose agent logging");
@@ -22,7 +27,77 @@ public class Main {
         System.out.println("-f\tregular expression class name filter");
         System.out.println("\tCan be specified multiple times.");
         System.out.println("-x\texclude classes matching the filter");
+        System.out.println("--stream");
+        System.out.println("\twrite each class to the jar as soon as it is dumped instead of keeping it in memory");
+        System.out.println("--threads n");
+        System.out.println("\tnumber of threads compressing the jar and verifying classes, defaults to 1");
+        System.out.println("--level n");
+        System.out.println("\tjar compression level from 1 (fastest) to 9 (smallest), 0 stores classes uncompressed");
+        System.out.println("--max-pause-ms ms");
+        System.out.println("\tadapt the number of classes retransformed at a time to pause the target at most this long");
+        System.out.println("\tThe batch size is fixed at " + ClassDumper.DUMP_BATCH_SIZE + " classes if not provided.");
+        System.out.println("--batch-pause-ms ms");
+        System.out.println("\ttime to let the target run undisturbed between batches");
+        System.out.println("--baseline dump.jar");
+        System.out.println("\tonly dump classes that are new or changed compared to a previous dump or its classes.sha256 manifest");
+        System.out.println("\tRelative paths will be relative with respect to the target process.");
+        System.out.println("--dedup");
+        System.out.println("\tonly write the first of identical classes in different class loaders, the rest are listed in dedup.index");
+        System.out.println("--jfr");
+        System.out.println("\talso record the timings of the dump as JFR events in the target, requires a running flight recording");
+        System.out.println("--max-time-ms ms");
+        System.out.println("\tstop dumping when the dump has taken this long, the classes left are listed in checkpoint.txt");
+        System.out.println("--max-cpu-ms ms");
+        System.out.println("\tstop dumping when the agent has used this much CPU time, the classes left are listed in checkpoint.txt");
+        System.out.println("--max-heap-mb mb");
+        System.out.println("\tstop dumping when the heap has grown this much, the classes left are listed in checkpoint.txt");
+        System.out.println("--resume dump.jar");
+        System.out.println("\tonly dump the classes left by a stopped dump of the same process, or listed in its checkpoint.txt");
+        System.out.println("\tRelative paths will be relative with respect to the target process.");
+        System.out.println("--all regex");
+        System.out.println("\tdump every JVM whose main class and arguments contain a match of the regular expression");
+        System.out.println("--parallel n");
+        System.out.println("\tnumber of JVMs dumped at the same time, defaults to 4");
+        System.out.println("--attach-timeout-ms ms");
+        System.out.println("\tgive up on a JVM that hasn't been dumped within this time");
+        System.out.println("--remote");
+        System.out.println("\tstream the dump back over a loopback connection and write it here instead of inside the target");
+        System.out.println("\tThe destination is then relative to this process.");
+        System.out.println("--resident");
+        System.out.println("\tkeep the agent loaded after the dump, so later dumps reuse its filters and only filter new classes");
+        System.out.println("--command dump|delta|shutdown");
+        System.out.println("\tdump all classes again, dump only the classes loaded since the last dump, or shut the resident agent down");
+        System.out.println("\tMakes the agent resident, unless shutting it down.");
+        System.out.println("--watch");
+        System.out.println("\tkeep capturing classes defined or redefined after the dump, until the resident agent is shut down");
+        System.out.println("\tThey are written to numbered jar segments next to the destination, inside the target.");
+        System.out.println("--segment-mb mb");
+        System.out.println("\tsize of the class data in each watch segment, defaults to 16");
+        System.out.println("--max-segments n");
+        System.out.println("\tnumber of watch segments kept before the oldest is deleted, all are kept if not provided");
+        System.out.println("--indexed");
+        System.out.println("\talso write the classes to an indexed dump next to the destination, with the " + IndexedDump.EXTENSION + " extension");
+        System.out.println("\tIt is queried with: java -cp JavaForensicsToolkit.jar " + IndexTool.class.getName());
+        System.out.println("--off-heap-mb mb");
+        System.out.println("\tkeep dumped classes in a memory mapped arena of this size instead of the heap of the target, until the jar is written");
+        System.out.println("--signatures file");
+        System.out.println("\tscan each dumped class for the signatures in the file, one per line as text or as hex:CAFEBABE, and list the hits in " + SignatureScanner.HITS_ENTRY_NAME);
+        System.out.println("\tRelative paths will be relative with respect to the target process.");
+        System.out.println("--matches-only");
+        System.out.println("\tonly write the classes matching a signature");
+        System.out.println("--verify");
+        System.out.println("\tcompare each class to the jar or directory it was loaded from and only dump those that differ");
+        System.out.println("--loader regex");
+        System.out.println("\tonly dump classes of class loaders whose name, like app or bootloader, matches the regular expression");
+        System.out.println("--loader-class regex");
+        System.out.println("\tonly dump classes of class loaders whose class name matches the regular expression");
+        System.out.println("--loader-parent regex");
+        System.out.println("\tonly dump classes of class loaders with a parent whose name matches the regular expression");
+        System.out.println("--inventory");
+        System.out.println("\tonly count the classes of each class loader and package, without dumping them");
         System.out.println("pid\tprocess id of the target java process");
+        System.out.println("\tCan be specified multiple times, {pid} in the destination is replaced by the pid of each JVM.");
+        System.out.println("\tOtherwise the pid is appended to the destination when dumping more than one JVM.");
         System.out.println();
         System.out.println("example:");
         System.out.println("java -jar JavaForensicsToolkit.jar -d dump.jar -f 'java\\\\..*' -f 'sun\\\\..*' -f 'jdk\\\\..*' -f 'com\\\\.sun\\\\..*' -x 1337");
@@ -42,6 +117,56 @@ public class Main {
         return null;
     }
 
+    private static void attach(Options target, String absolutJarLocation) throws Exception {
+        String pid = target.getPid();
+        System.out.println("Injecting agent into JVM with pid: " + pid);
+        VirtualMachine vm = VirtualMachine.attach(pid);
+        try {
+            if (target.isShutdown()) {
+                System.out.println("Shutting down the resident agent in " + pid);
+                vm.loadAgent(absolutJarLocation, Utils.encodeArgs(target.getArgs()));
+                return;
+            }
+
+            if (target.isRemote()) {
+                File destination = new File(target.getDestination()).getAbsoluteFile();
+                target.setDestination(destination.getPath());
+                try (DumpReceiver receiver = new DumpReceiver(destination)) {
+                    target.setConnect(receiver.getPort(), receiver.getToken());
+                    System.out.println("Receiving classes from " + pid + " into: " + destination);
+                    vm.loadAgent(absolutJarLocation, Utils.encodeArgs(target.getArgs()));
+                    System.out.printf("Received %d bytes from %s%n", receiver.await(), pid);
+                }
+                return;
+            }
+
+            System.out.println("Dumping classes from " + pid + " to: " + target.getDestination());
+            String[] cmdLine = target.getArgs();
+            vm.loadAgent(absolutJarLocation, Utils.encodeArgs(cmdLine));
+        } finally {
+            try {
+                vm.detach();
+            } catch (IOException ioe) {
+                System.out.println("Unable to detach from process " + pid);
+            }
+        }
+    }
+
+    /**
+     * @param pattern to find in the display name of each JVM, i.e. its main class and arguments
+     * @return pids of the matching JVMs, except this one
+     */
+    private static List<String> findPids(Pattern pattern) {
+        String self = String.valueOf(ProcessHandle.current().pid());
+        List<String> pids = new ArrayList<>();
+        for (VirtualMachineDescriptor descriptor : VirtualMachine.list()) {
+            if (!descriptor.id().equals(self) && pattern.matcher(descriptor.displayName()).find()) {
+                pids.add(descriptor.id());
+            }
+        }
+        return pids;
+    }
+
     public static void main(String[] args) throws Exception {
         System.out.printf(Utils.getApplicationHeader() + "%n");
         String absolutJarLocation = getJarLocation();
@@ -53,18 +178,35 @@ public class Main {
         // We pre-parse the command line to be sure that it is syntactically correct prior to sending it to agentmain
         Options options = new Options(args);
 
-        String pid = options.getPid();
-        System.out.println("Injecting agent into JVM with pid: " + pid);
-        VirtualMachine vm = VirtualMachine.attach(pid);
-        try {
-            System.out.println("Dumping classes to: " + options.getDestination());
-            String[] cmdLine = options.getArgs();
-            vm.loadAgent(absolutJarLocation, Utils.encodeArgs(cmdLine));
-        } finally {
-            try {
-                vm.detach();
-            } catch (IOException ioe) {
-                System.out.println("Unable to detach from process");
+        List<String> pids = new ArrayList<>(options.getPids());
+        if (options.getAll() != null) {
+            List<String> found = findPids(options.getAll());
+            System.out.printf("Found %d JVMs matching: %s%n", found.size(), options.getAll().pattern());
+            found.stream().filter(pid -> !pids.contains(pid)).forEach(pids::add);
+        }
+        List<Options> targets = new ArrayList<>();
+        for (String pid : pids) {
+            targets.add(options.forTarget(pid));
+        }
+
+        ParallelAttacher attacher = new ParallelAttacher(target -> attach(target, absolutJarLocation), options.getParallel(), options.getAttachTimeoutMillis());
+        List<ParallelAttacher.Result> results = attacher.run(targets);
+        if (options.isMultiple()) {
+            System.out.println();
+            System.out.print(ParallelAttacher.summarize(results));
+            if (results.isEmpty() || results.stream().anyMatch(result -> result.getStatus() != ParallelAttacher.Status.DONE)) {
+                System.exit(1);
+            }
+        } else {
+            ParallelAttacher.Result result = results.get(0);
+            if (result.getStatus() == ParallelAttacher.Status.FAILED) {
+                if (result.getError() instanceof Exception) {
+                    throw (Exception) result.getError();
+                }
+                throw (Error) result.getError();
+            } else if (result.getStatus() == ParallelAttacher.Status.TIMED_OUT) {
+                System.out.printf("Timed out after %d ms, the agent might still write %s%n", options.getAttachTimeoutMillis(), result.getTarget().getDestination());
+                System.exit(1);
             }
         }
 
@@ -0,0 +1,158 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of a dump, written to the jar as metrics.json.
+ * <p>
+ * Stages are timed back to back, starting a stage ends the previous one. Batch latencies are kept in a histogram with
+ * power of two microsecond buckets. The heap delta is the difference between the heap usage when the dump started and
+ * the highest usage sampled after each batch and stage. It is approximate, as it includes whatever the target
+ * application allocates in the meantime.
+ */
+public class Metrics {
+    public static final String ENTRY_NAME = "metrics.json";
+
+    private static final int BUCKETS = 32;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final boolean jfr;
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private final long[] histogram = new long[BUCKETS];
+    private final AtomicLong capturedClasses = new AtomicLong();
+    private final AtomicLong capturedBytes = new AtomicLong();
+    private final long startHeap;
+    private long peakHeap;
+    private String stage;
+    private long stageStarted;
+    private long batches;
+    private long batchNanos;
+    private long maxBatchNanos;
+    private int loadedClasses;
+    private int acceptedClasses;
+
+    /**
+     * @param jfr true if stages and batches should also be emitted as JFR events
+     */
+    public Metrics(boolean jfr) {
+        this.jfr = jfr;
+        startHeap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap = startHeap;
+    }
+
+    /**
+     * Ends the current stage, if any, and starts timing a new one.
+     *
+     * @param name of the new stage, null to only end the current one
+     */
+    public void startStage(String name) {
+        long now = System.nanoTime();
+        if (stage != null) {
+            long elapsed = now - stageStarted;
+            stages.merge(stage, elapsed, Long::sum);
+            if (jfr) {
+                JfrEvents.stage(stage, elapsed);
+            }
+        }
+        sampleHeap();
+        stage = name;
+        stageStarted = now;
+    }
+
+    public void recordBatch(int size, long elapsedNanos) {
+        batches++;
+        batchNanos += elapsedNanos;
+        maxBatchNanos = Math.max(maxBatchNanos, elapsedNanos);
+        histogram[bucket(elapsedNanos)]++;
+        sampleHeap();
+        if (jfr) {
+            JfrEvents.batch(size, elapsedNanos);
+        }
+    }
+
+    /**
+     * Counts a class captured by the transformer, safe to call from any thread.
+     *
+     * @param bytes size of the bytecode
+     */
+    public void recordCapture(int bytes) {
+        capturedClasses.incrementAndGet();
+        capturedBytes.addAndGet(bytes);
+    }
+
+    public void setClasses(int loadedClasses, int acceptedClasses) {
+        this.loadedClasses = loadedClasses;
+        this.acceptedClasses = acceptedClasses;
+    }
+
+    /**
+     * @param name of the stage
+     * @return the wall time of the stage in nanoseconds, 0 if it never ran
+     */
+    public long getStageNanos(String name) {
+        return stages.getOrDefault(name, 0L);
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> entry : stages.entrySet()) {
+            json.append(separator).append(String.format(Locale.ROOT, "    \"%s\": {\"wallMillis\": %.3f}", entry.getKey(), toMillis(entry.getValue())));
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        long dumpNanos = getStageNanos("retransform") + getStageNanos("writer");
+        double classesPerSecond = dumpNanos == 0 ? 0 : capturedClasses.get() / (dumpNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        json.append(String.format(Locale.ROOT, "  \"classes\": {\"loaded\": %d, \"accepted\": %d, \"captured\": %d, \"perSecond\": %.1f},%n",
+                loadedClasses, acceptedClasses, capturedClasses.get(), classesPerSecond));
+        json.append(String.format(Locale.ROOT, "  \"capturedBytes\": %d,%n", capturedBytes.get()));
+
+        json.append(String.format(Locale.ROOT, "  \"batches\": {\"count\": %d, \"totalMillis\": %.3f, \"meanMillis\": %.3f, \"maxMillis\": %.3f, \"histogram\": [",
+                batches, toMillis(batchNanos), batches == 0 ? 0.0 : toMillis(batchNanos) / batches, toMillis(maxBatchNanos)));
+        separator = "\n";
+        for (int i = 0; i < BUCKETS; i++) {
+            if (histogram[i] > 0) {
+                json.append(separator).append(String.format(Locale.ROOT, "    {\"upToMicros\": %d, \"count\": %d}", 1L << i, histogram[i]));
+                separator = ",\n";
+            }
+        }
+        json.append(batches == 0 ? "]},\n" : "\n  ]},\n");
+
+        json.append(String.format(Locale.ROOT, "  \"heap\": {\"startBytes\": %d, \"peakBytes\": %d, \"peakDeltaBytes\": %d}%n", startHeap, peakHeap, peakHeap - startHeap));
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return the histogram bucket of a latency, bucket i holds latencies up to 2^i microseconds
+     */
+    static int bucket(long elapsedNanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private void sampleHeap() {
+        peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
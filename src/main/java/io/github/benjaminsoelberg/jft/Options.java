@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 public class Options {
     public static final String VERBOSE_OPTION = "-v";
@@ -15,6 +16,43 @@ public class Options {
     public static final String IGNORE_PLATFORM_CLASS_LOADER_OPTION = "-p";
     public static final String FILTER_OPTION = "-f";
     public static final String INVERTED_FILTER_OPTION = "-x";
+    public static final String STREAM_OPTION = "--stream";
+    public static final String THREADS_OPTION = "--threads";
+    public static final String LEVEL_OPTION = "--level";
+    public static final String MAX_PAUSE_OPTION = "--max-pause-ms";
+    public static final String BATCH_PAUSE_OPTION = "--batch-pause-ms";
+    public static final String BASELINE_OPTION = "--baseline";
+    public static final String DEDUP_OPTION = "--dedup";
+    public static final String JFR_OPTION = "--jfr";
+    public static final String MAX_TIME_OPTION = "--max-time-ms";
+    public static final String MAX_CPU_OPTION = "--max-cpu-ms";
+    public static final String MAX_HEAP_OPTION = "--max-heap-mb";
+    public static final String RESUME_OPTION = "--resume";
+    public static final String ALL_OPTION = "--all";
+    public static final String PARALLEL_OPTION = "--parallel";
+    public static final String ATTACH_TIMEOUT_OPTION = "--attach-timeout-ms";
+    public static final String REMOTE_OPTION = "--remote";
+    public static final String RESIDENT_OPTION = "--resident";
+    public static final String COMMAND_OPTION = "--command";
+    public static final String DUMP_COMMAND = "dump";
+    public static final String DELTA_COMMAND = "delta";
+    public static final String SHUTDOWN_COMMAND = "shutdown";
+    public static final String WATCH_OPTION = "--watch";
+    public static final String SEGMENT_SIZE_OPTION = "--segment-mb";
+    public static final String MAX_SEGMENTS_OPTION = "--max-segments";
+    public static final String INDEXED_OPTION = "--indexed";
+    public static final String OFF_HEAP_OPTION = "--off-heap-mb";
+    public static final String SIGNATURES_OPTION = "--signatures";
+    public static final String MATCHES_ONLY_OPTION = "--matches-only";
+    public static final String VERIFY_OPTION = "--verify";
+    public static final String LOADER_OPTION = "--loader";
+    public static final String LOADER_CLASS_OPTION = "--loader-class";
+    public static final String LOADER_PARENT_OPTION = "--loader-parent";
+    public static final String INVENTORY_OPTION = "--inventory";
+    // Passed to the agent only, the loopback port and token of the DumpReceiver as "port:token"
+    public static final String CONNECT_OPTION = "--connect";
+    // Replaced by the pid of each JVM in the destination
+    public static final String PID_PLACEHOLDER = "{pid}";
     private final ArrayList<Pattern> filter = new ArrayList<>();
     private boolean verbose;
     private boolean logToStdErr;
@@ -22,7 +60,41 @@ public class Options {
     private boolean ignoreSystemClassloader;
     private boolean ignorePlatformClassloader;
     private boolean invertedFilter;
-    private String pid;
+    private boolean stream;
+    private int threads = 1;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int maxPauseMillis;
+    private int batchPauseMillis;
+    private String baseline;
+    private boolean dedup;
+    private boolean jfr;
+    private int maxTimeMillis;
+    private int maxCpuMillis;
+    private int maxHeapMegabytes;
+    private String resume;
+    private Pattern all;
+    private int parallel = 4;
+    private int attachTimeoutMillis;
+    private boolean remote;
+    private boolean resident;
+    private String command;
+    private boolean watch;
+    private int segmentMegabytes = 16;
+    private int maxSegments;
+    private boolean indexed;
+    private int offHeapMegabytes;
+    private String signatures;
+    private boolean matchesOnly;
+    private boolean verify;
+    private Pattern loader;
+    private Pattern loaderClass;
+    private Pattern loaderParent;
+    private boolean inventory;
+    private int connectPort;
+    private String connectToken;
+    private final List<String> pids = new ArrayList<>();
+    private ClassNameFilter filterPredicate;
+    private LoaderSelector loaderSelector;
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
     public Options(String[] args) throws ParserException {
@@ -53,6 +125,104 @@ public class Options {
                         case INVERTED_FILTER_OPTION:
                             invertedFilter = true;
                             break;
+                        case STREAM_OPTION:
+                            stream = true;
+                            break;
+                        case THREADS_OPTION:
+                            threads = parseInt(token, iterator.next(), 1, 256);
+                            break;
+                        case LEVEL_OPTION:
+                            level = parseInt(token, iterator.next(), JarWriter.STORED, Deflater.BEST_COMPRESSION);
+                            break;
+                        case MAX_PAUSE_OPTION:
+                            maxPauseMillis = parseInt(token, iterator.next(), 1, 60_000);
+                            break;
+                        case BATCH_PAUSE_OPTION:
+                            batchPauseMillis = parseInt(token, iterator.next(), 0, 60_000);
+                            break;
+                        case BASELINE_OPTION:
+                            baseline = iterator.next();
+                            break;
+                        case DEDUP_OPTION:
+                            dedup = true;
+                            break;
+                        case JFR_OPTION:
+                            jfr = true;
+                            break;
+                        case MAX_TIME_OPTION:
+                            maxTimeMillis = parseInt(token, iterator.next(), 1, Integer.MAX_VALUE);
+                            break;
+                        case MAX_CPU_OPTION:
+                            maxCpuMillis = parseInt(token, iterator.next(), 1, Integer.MAX_VALUE);
+                            break;
+                        case MAX_HEAP_OPTION:
+                            maxHeapMegabytes = parseInt(token, iterator.next(), 1, 1024 * 1024);
+                            break;
+                        case RESUME_OPTION:
+                            resume = iterator.next();
+                            break;
+                        case ALL_OPTION:
+                            all = Pattern.compile(iterator.next());
+                            break;
+                        case PARALLEL_OPTION:
+                            parallel = parseInt(token, iterator.next(), 1, 256);
+                            break;
+                        case ATTACH_TIMEOUT_OPTION:
+                            attachTimeoutMillis = parseInt(token, iterator.next(), 1, Integer.MAX_VALUE);
+                            break;
+                        case REMOTE_OPTION:
+                            remote = true;
+                            break;
+                        case RESIDENT_OPTION:
+                            resident = true;
+                            break;
+                        case WATCH_OPTION:
+                            watch = true;
+                            break;
+                        case SEGMENT_SIZE_OPTION:
+                            segmentMegabytes = parseInt(token, iterator.next(), 1, 4096);
+                            break;
+                        case MAX_SEGMENTS_OPTION:
+                            maxSegments = parseInt(token, iterator.next(), 1, 1_000_000);
+                            break;
+                        case INDEXED_OPTION:
+                            indexed = true;
+                            break;
+                        case OFF_HEAP_OPTION:
+                            offHeapMegabytes = parseInt(token, iterator.next(), 1, 1024 * 1024);
+                            break;
+                        case SIGNATURES_OPTION:
+                            signatures = iterator.next();
+                            break;
+                        case MATCHES_ONLY_OPTION:
+                            matchesOnly = true;
+                            break;
+                        case VERIFY_OPTION:
+                            verify = true;
+                            break;
+                        case LOADER_OPTION:
+                            loader = Pattern.compile(iterator.next());
+                            break;
+                        case LOADER_CLASS_OPTION:
+                            loaderClass = Pattern.compile(iterator.next());
+                            break;
+                        case LOADER_PARENT_OPTION:
+                            loaderParent = Pattern.compile(iterator.next());
+                            break;
+                        case INVENTORY_OPTION:
+                            inventory = true;
+                            break;
+                        case COMMAND_OPTION:
+                            command = iterator.next();
+                            if (!List.of(DUMP_COMMAND, DELTA_COMMAND, SHUTDOWN_COMMAND).contains(command)) {
+                                throw new ParserException(String.format("Invalid value [%s] for [%s], must be one of %s, %s or %s", command, token, DUMP_COMMAND, DELTA_COMMAND, SHUTDOWN_COMMAND));
+                            }
+                            break;
+                        case CONNECT_OPTION:
+                            String[] connect = iterator.next().split(":", 2);
+                            connectPort = parseInt(token, connect[0], 1, 65535);
+                            connectToken = connect.length == 2 ? connect[1] : "";
+                            break;
                         default:
                             throw new ParserException(String.format("Unknown option [%s]", token));
                     }
@@ -60,27 +230,66 @@ public class Options {
                     throw new ParserException(String.format("Too few arguments for [%s]", token));
                 }
             } else {
-                if (iterator.hasNext()) {
-                    throw new ParserException("Too many arguments");
+                // Only more pids can follow the first pid
+                while (iterator.hasNext()) {
+                    pids.add(token);
+                    token = iterator.next();
+                    if (token.startsWith("-")) {
+                        throw new ParserException("Too many arguments");
+                    }
                 }
-                setPid(token);
+                pids.add(token);
             }
         }
 
         if (filter.isEmpty()) {
             filter.add(Pattern.compile(".*")); // Always return true
         }
+        filterPredicate = new ClassNameFilter(filter, invertedFilter);
+        if (loader != null || loaderClass != null || loaderParent != null) {
+            loaderSelector = new LoaderSelector(loader, loaderClass, loaderParent);
+        }
+
+        if (watch && remote) {
+            throw new ParserException(String.format("[%s] can't be used with [%s] as segments are written inside the target", WATCH_OPTION, REMOTE_OPTION));
+        }
+
+        if (indexed && remote) {
+            throw new ParserException(String.format("[%s] can't be used with [%s] as the indexed dump is written inside the target", INDEXED_OPTION, REMOTE_OPTION));
+        }
+
+        if (inventory) {
+            // Options that need the bytecode of the classes
+            rejectWithInventory(stream, STREAM_OPTION);
+            rejectWithInventory(baseline != null, BASELINE_OPTION);
+            rejectWithInventory(dedup, DEDUP_OPTION);
+            rejectWithInventory(resume != null, RESUME_OPTION);
+            rejectWithInventory(watch, WATCH_OPTION);
+            rejectWithInventory(indexed, INDEXED_OPTION);
+            rejectWithInventory(offHeapMegabytes > 0, OFF_HEAP_OPTION);
+            rejectWithInventory(signatures != null, SIGNATURES_OPTION);
+            rejectWithInventory(verify, VERIFY_OPTION);
+        }
+
+        if (matchesOnly && signatures == null) {
+            throw new ParserException(String.format("[%s] requires [%s]", MATCHES_ONLY_OPTION, SIGNATURES_OPTION));
+        }
 
         // validate mandatory options
-        if (pid == null || pid.isBlank()) {
+        if ((pids.isEmpty() && all == null) || pids.stream().anyMatch(String::isBlank)) {
             throw new ParserException("pid is mandatory");
         }
 
+        // The dump is written by whoever receives it
+        if (connectPort != 0) {
+            return;
+        }
+
         // Try to create a usable (temp) destination file
         File file = null;
         try {
             if (destination == null || destination.isBlank()) {
-                file = Files.createTempFile("dump-" + pid + "-", ".jar").toFile();
+                file = Files.createTempFile("dump-" + (isMultiple() ? PID_PLACEHOLDER : getPid()) + "-", ".jar").toFile();
                 destination = file.getPath(); // We'll reuse it as destination filename in the agent
             } else {
                 file = new File(destination);
@@ -95,6 +304,24 @@ public class Options {
         }
     }
 
+    private static void rejectWithInventory(boolean set, String option) throws ParserException {
+        if (set) {
+            throw new ParserException(String.format("[%s] can't be used with [%s] as no classes are dumped", INVENTORY_OPTION, option));
+        }
+    }
+
+    private static int parseInt(String option, String value, int min, int max) throws ParserException {
+        try {
+            int i = Integer.parseInt(value);
+            if (i >= min && i <= max) {
+                return i;
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below
+        }
+        throw new ParserException(String.format("Invalid value [%s] for [%s], must be between %d and %d", value, option, min, max));
+    }
+
     /**
      * Will reproduce a well formatted list of command line args
      *
@@ -125,8 +352,122 @@ public class Options {
         if (invertedFilter) {
             args.add(INVERTED_FILTER_OPTION);
         }
+        if (stream) {
+            args.add(STREAM_OPTION);
+        }
+        if (threads != 1) {
+            args.add(THREADS_OPTION);
+            args.add(String.valueOf(threads));
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION) {
+            args.add(LEVEL_OPTION);
+            args.add(String.valueOf(level));
+        }
+        if (maxPauseMillis != 0) {
+            args.add(MAX_PAUSE_OPTION);
+            args.add(String.valueOf(maxPauseMillis));
+        }
+        if (batchPauseMillis != 0) {
+            args.add(BATCH_PAUSE_OPTION);
+            args.add(String.valueOf(batchPauseMillis));
+        }
+        if (baseline != null) {
+            args.add(BASELINE_OPTION);
+            args.add(baseline);
+        }
+        if (dedup) {
+            args.add(DEDUP_OPTION);
+        }
+        if (jfr) {
+            args.add(JFR_OPTION);
+        }
+        if (maxTimeMillis != 0) {
+            args.add(MAX_TIME_OPTION);
+            args.add(String.valueOf(maxTimeMillis));
+        }
+        if (maxCpuMillis != 0) {
+            args.add(MAX_CPU_OPTION);
+            args.add(String.valueOf(maxCpuMillis));
+        }
+        if (maxHeapMegabytes != 0) {
+            args.add(MAX_HEAP_OPTION);
+            args.add(String.valueOf(maxHeapMegabytes));
+        }
+        if (resume != null) {
+            args.add(RESUME_OPTION);
+            args.add(resume);
+        }
+        if (all != null) {
+            args.add(ALL_OPTION);
+            args.add(all.pattern());
+        }
+        if (parallel != 4) {
+            args.add(PARALLEL_OPTION);
+            args.add(String.valueOf(parallel));
+        }
+        if (attachTimeoutMillis != 0) {
+            args.add(ATTACH_TIMEOUT_OPTION);
+            args.add(String.valueOf(attachTimeoutMillis));
+        }
+        if (remote) {
+            args.add(REMOTE_OPTION);
+        }
+        if (resident) {
+            args.add(RESIDENT_OPTION);
+        }
+        if (command != null) {
+            args.add(COMMAND_OPTION);
+            args.add(command);
+        }
+        if (watch) {
+            args.add(WATCH_OPTION);
+        }
+        if (segmentMegabytes != 16) {
+            args.add(SEGMENT_SIZE_OPTION);
+            args.add(String.valueOf(segmentMegabytes));
+        }
+        if (maxSegments != 0) {
+            args.add(MAX_SEGMENTS_OPTION);
+            args.add(String.valueOf(maxSegments));
+        }
+        if (indexed) {
+            args.add(INDEXED_OPTION);
+        }
+        if (offHeapMegabytes != 0) {
+            args.add(OFF_HEAP_OPTION);
+            args.add(String.valueOf(offHeapMegabytes));
+        }
+        if (signatures != null) {
+            args.add(SIGNATURES_OPTION);
+            args.add(signatures);
+        }
+        if (matchesOnly) {
+            args.add(MATCHES_ONLY_OPTION);
+        }
+        if (verify) {
+            args.add(VERIFY_OPTION);
+        }
+        if (loader != null) {
+            args.add(LOADER_OPTION);
+            args.add(loader.pattern());
+        }
+        if (loaderClass != null) {
+            args.add(LOADER_CLASS_OPTION);
+            args.add(loaderClass.pattern());
+        }
+        if (loaderParent != null) {
+            args.add(LOADER_PARENT_OPTION);
+            args.add(loaderParent.pattern());
+        }
+        if (inventory) {
+            args.add(INVENTORY_OPTION);
+        }
+        if (connectPort != 0) {
+            args.add(CONNECT_OPTION);
+            args.add(connectPort + ":" + connectToken);
+        }
 
-        args.add(pid);
+        args.addAll(pids);
 
         return args.toArray(new String[0]);
     }
@@ -143,14 +484,83 @@ public class Options {
         return Collections.unmodifiableList(filter);
     }
 
+    /**
+     * @return the filter compiled from all filter patterns, safe to use from multiple threads
+     */
     public Predicate<String> getFilterPredicate() {
-        return s -> filter.stream().anyMatch(pattern -> pattern.asMatchPredicate().test(s)) ^ invertedFilter;
+        return filterPredicate;
     }
 
     public boolean isInvertedFilter() {
         return invertedFilter;
     }
 
+    public boolean isStream() {
+        return stream;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the retransformation pause budget per batch, 0 if the batch size is fixed
+     */
+    public int getMaxPauseMillis() {
+        return maxPauseMillis;
+    }
+
+    public int getBatchPauseMillis() {
+        return batchPauseMillis;
+    }
+
+    /**
+     * @return previous dump or manifest to compare against, null if all classes should be dumped
+     */
+    public String getBaseline() {
+        return baseline;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public boolean isJfr() {
+        return jfr;
+    }
+
+    /**
+     * @return the wall time budget of the dump, 0 if unlimited
+     */
+    public int getMaxTimeMillis() {
+        return maxTimeMillis;
+    }
+
+    /**
+     * @return the CPU time budget of the dump, 0 if unlimited
+     */
+    public int getMaxCpuMillis() {
+        return maxCpuMillis;
+    }
+
+    /**
+     * @return the heap growth budget of the dump, 0 if unlimited
+     */
+    public int getMaxHeapMegabytes() {
+        return maxHeapMegabytes;
+    }
+
+    /**
+     * @return stopped dump or checkpoint to resume from, null if all classes should be dumped
+     */
+    public String getResume() {
+        return resume;
+    }
+
     public boolean isIgnoreSystemClassloader() {
         return ignoreSystemClassloader;
     }
@@ -163,11 +573,200 @@ public class Options {
         return destination;
     }
 
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * @return pattern matching the main class and arguments of the JVMs to dump, null if only the given pids are dumped
+     */
+    public Pattern getAll() {
+        return all;
+    }
+
+    /**
+     * @return the number of JVMs dumped at the same time
+     */
+    public int getParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return how long a single JVM may take to dump, 0 if unlimited
+     */
+    public int getAttachTimeoutMillis() {
+        return attachTimeoutMillis;
+    }
+
+    /**
+     * @return true if the agent should stream the dump back to be written on the attaching side
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * @return true if the agent should stay loaded after the dump, which is implied by any command
+     */
+    public boolean isResident() {
+        return resident || command != null || watch;
+    }
+
+    /**
+     * @return true if classes defined or redefined after the dump should be captured, which implies a resident agent
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public int getSegmentMegabytes() {
+        return segmentMegabytes;
+    }
+
+    /**
+     * @return the number of watch segments kept before the oldest is deleted, 0 to keep all of them
+     */
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @return the indexed dump written next to the destination, with its extension instead of .jar
+     */
+    public String getIndexedDestination() {
+        String base = destination.toLowerCase(Locale.ROOT).endsWith(".jar") ? destination.substring(0, destination.length() - 4) : destination;
+        return base + IndexedDump.EXTENSION;
+    }
+
+    /**
+     * @return the size of the off-heap arena holding captured bytecode until the jar is written, 0 to keep it on the heap
+     */
+    public int getOffHeapMegabytes() {
+        return offHeapMegabytes;
+    }
+
+    /**
+     * @return the file with the signatures to scan each class for, null if none was given
+     */
+    public String getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * @return true if only classes matching a signature should be dumped
+     */
+    public boolean isMatchesOnly() {
+        return matchesOnly;
+    }
+
+    /**
+     * @return true if classes should be compared to their jar or directory, and only dumped if they differ
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @return the selector of the class loaders to dump, null if classes of all class loaders should be dumped
+     */
+    public LoaderSelector getLoaderSelector() {
+        return loaderSelector;
+    }
+
+    /**
+     * @return true if only an inventory of the loaded classes should be taken, without dumping them
+     */
+    public boolean isInventory() {
+        return inventory;
+    }
+
+    /**
+     * @return command for a resident agent, null if none was given
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return true if no dump should be written, as the resident agent is only shut down
+     */
+    public boolean isShutdown() {
+        return SHUTDOWN_COMMAND.equals(command);
+    }
+
+    /**
+     * @return loopback port the agent streams the dump to, 0 if the agent writes the destination itself
+     */
+    public int getConnectPort() {
+        return connectPort;
+    }
+
+    public String getConnectToken() {
+        return connectToken;
+    }
+
+    /**
+     * @param port  loopback port of the {@link DumpReceiver}
+     * @param token identifying the agent to the receiver
+     */
+    public void setConnect(int port, String token) {
+        this.connectPort = port;
+        this.connectToken = token;
+    }
+
+    /**
+     * @return true if more than one JVM might be dumped
+     */
+    public boolean isMultiple() {
+        return pids.size() != 1 || all != null;
+    }
+
+    /**
+     * @return the first pid, null if only --all was given
+     */
     public String getPid() {
-        return pid;
+        return pids.isEmpty() ? null : pids.get(0);
+    }
+
+    public List<String> getPids() {
+        return Collections.unmodifiableList(pids);
     }
 
     public void setPid(String pid) {
-        this.pid = pid;
+        pids.clear();
+        pids.add(pid);
+    }
+
+    /**
+     * @param pid of a JVM
+     * @return the destination of the JVM, the pid is appended when dumping several JVMs to a destination without
+     * {@link #PID_PLACEHOLDER}
+     */
+    public String getDestination(String pid) {
+        if (destination.contains(PID_PLACEHOLDER)) {
+            return destination.replace(PID_PLACEHOLDER, pid);
+        }
+        if (!isMultiple()) {
+            return destination;
+        }
+        int extension = destination.toLowerCase(Locale.ROOT).endsWith(".jar") ? destination.length() - 4 : destination.length();
+        return destination.substring(0, extension) + "-" + pid + destination.substring(extension);
+    }
+
+    /**
+     * @param pid of a JVM
+     * @return the options of the agent dumping the JVM
+     * @throws ParserException if the options couldn't be parsed
+     */
+    public Options forTarget(String pid) throws ParserException {
+        Options target = new Options(getArgs());
+        target.destination = getDestination(pid);
+        target.all = null;
+        target.setPid(pid);
+        return target;
     }
 }
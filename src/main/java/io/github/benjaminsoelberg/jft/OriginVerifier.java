@@ -0,0 +1,198 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares captured classes to the class files of their code source, to find classes changed in memory.
+ * <p>
+ * The jar or directory of a class is found through its protection domain. Each jar is opened once, the first time one
+ * of its classes is verified, and shared by all threads. Multi-release jars are read for the running version of Java,
+ * like the class loader does. Both the captured and the original class file are hashed by {@link ClassFileNormalizer}
+ * on a pool of threads, as the JVM doesn't always return the class file it loaded.
+ */
+public class OriginVerifier implements Closeable {
+    private static final Origin NO_ORIGIN = new Origin(null, null);
+
+    private final ExecutorService hashers;
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+
+    public enum Verdict {
+        UNCHANGED("unchanged"),
+        MODIFIED("modified"),
+        MISSING("missing from its origin"),
+        ORIGINLESS("originless"),
+        FAILED("failed to verify");
+
+        private final String description;
+
+        Verdict(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * The jar or directory a class was loaded from.
+     */
+    private static final class Origin {
+        private final File directory;
+        private final JarFile jar;
+
+        private Origin(File directory, JarFile jar) {
+            this.directory = directory;
+            this.jar = jar;
+        }
+
+        /**
+         * @return the original class file or null if it isn't there
+         */
+        private byte[] read(String nativeClassName) throws IOException {
+            String path = nativeClassName + ".class";
+            if (directory != null) {
+                File file = new File(directory, path);
+                return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+            }
+            // The versioned entry of a multi-release jar if there is one for this runtime, as that is the one loaded
+            JarEntry entry = jar.getJarEntry(path);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = jar.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        }
+    }
+
+    /**
+     * @param threads hashing classes
+     */
+    public OriginVerifier(int threads) {
+        AtomicInteger id = new AtomicInteger();
+        hashers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jft-verifier-" + id.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param protectionDomain of the class, may be null
+     * @return the location of the code source of the class, or null if it has none
+     */
+    public static URL getLocation(ProtectionDomain protectionDomain) {
+        CodeSource codeSource = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        return codeSource == null ? null : codeSource.getLocation();
+    }
+
+    /**
+     * Verifies a class in the background.
+     *
+     * @param protectionDomain of the class, may be null
+     * @param nativeClassName  of the class
+     * @param bytecode         of the class as captured
+     * @return the verdict once the class has been verified
+     */
+    public Future<Verdict> verify(ProtectionDomain protectionDomain, String nativeClassName, byte[] bytecode) {
+        URL location = getLocation(protectionDomain);
+        return hashers.submit(() -> {
+            Origin origin = location == null ? NO_ORIGIN : origins.computeIfAbsent(location.toString(), key -> open(location));
+            if (origin == NO_ORIGIN) {
+                return Verdict.ORIGINLESS;
+            }
+            byte[] original = origin.read(nativeClassName);
+            if (original == null) {
+                return Verdict.MISSING;
+            }
+            if (Arrays.equals(original, bytecode)) {
+                // The class file as loaded, which the JVM keeps when an agent was present at the time
+                return Verdict.UNCHANGED;
+            }
+            try {
+                return Arrays.equals(ClassFileNormalizer.digest(original), ClassFileNormalizer.digest(bytecode)) ? Verdict.UNCHANGED : Verdict.MODIFIED;
+            } catch (IllegalArgumentException iae) {
+                return Verdict.FAILED;
+            }
+        });
+    }
+
+    /**
+     * @return the number of jars and directories classes have been verified against
+     */
+    public int getOrigins() {
+        return opened.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        hashers.shutdownNow();
+        IOException exception = null;
+        for (Origin origin : origins.values()) {
+            if (origin.jar != null) {
+                try {
+                    origin.jar.close();
+                } catch (IOException ioe) {
+                    exception = ioe;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * @return the origin, or {@link #NO_ORIGIN} for locations that aren't local jars or directories, like the runtime
+     * image or nested jars
+     */
+    private Origin open(URL location) {
+        if (!"file".equals(location.getProtocol())) {
+            return NO_ORIGIN;
+        }
+        File file;
+        try {
+            file = Paths.get(location.toURI()).toFile();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return NO_ORIGIN;
+        }
+
+        Origin origin;
+        if (file.isDirectory()) {
+            origin = new Origin(file, null);
+        } else if (file.isFile()) {
+            try {
+                origin = new Origin(null, new JarFile(file, true, ZipFile.OPEN_READ, Runtime.version()));
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        } else {
+            return NO_ORIGIN;
+        }
+        opened.incrementAndGet();
+        return origin;
+    }
+}
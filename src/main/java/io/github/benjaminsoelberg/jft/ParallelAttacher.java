@@ -0,0 +1,173 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dumps several JVMs at the same time.
+ * <p>
+ * Each JVM is attached to from a thread of its own, while a fixed number of slots limits how many JVMs are dumped at the
+ * same time. A JVM that doesn't finish within the timeout gives up its slot, and its thread is abandoned, as neither
+ * attaching nor loading an agent can be interrupted. The agent might therefore still finish the dump later on.
+ */
+public class ParallelAttacher {
+
+    /**
+     * Attaches to a JVM and runs the agent with the given options.
+     */
+    @FunctionalInterface
+    public interface Attacher {
+        void attach(Options target) throws Exception;
+    }
+
+    public enum Status {
+        DONE("done"), FAILED("failed"), TIMED_OUT("timed out");
+
+        private final String description;
+
+        Status(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    public static final class Result {
+        private final Options target;
+        private final Status status;
+        private final long elapsedNanos;
+        private final Throwable error;
+
+        private Result(Options target, Status status, long elapsedNanos, Throwable error) {
+            this.target = target;
+            this.status = status;
+            this.elapsedNanos = elapsedNanos;
+            this.error = error;
+        }
+
+        public Options getTarget() {
+            return target;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return why the dump failed, null if it didn't
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    private final Attacher attacher;
+    private final int parallel;
+    private final long timeoutMillis;
+
+    /**
+     * @param attacher      attaching to each JVM
+     * @param parallel      number of JVMs dumped at the same time
+     * @param timeoutMillis how long a single JVM may take, 0 if unlimited
+     */
+    public ParallelAttacher(Attacher attacher, int parallel, long timeoutMillis) {
+        this.attacher = attacher;
+        this.parallel = parallel;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Dumps all targets and waits for them to finish or time out.
+     *
+     * @param targets options of each JVM
+     * @return the result of each target, in the same order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Result> run(List<Options> targets) throws InterruptedException {
+        ExecutorService slots = Executors.newFixedThreadPool(Math.max(1, Math.min(parallel, targets.size())), daemonThreads("jft-slot-"));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Options target : targets) {
+                futures.add(slots.submit(() -> dump(target)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ee) {
+                    // dump never throws
+                    throw new IllegalStateException(ee.getCause());
+                }
+            }
+            return results;
+        } finally {
+            slots.shutdownNow();
+        }
+    }
+
+    private Result dump(Options target) throws InterruptedException {
+        Throwable[] error = new Throwable[1];
+        long started = System.nanoTime();
+        Thread worker = daemonThreads("jft-attach-" + target.getPid() + "-").newThread(() -> {
+            try {
+                attacher.attach(target);
+            } catch (Throwable th) {
+                error[0] = th;
+            }
+        });
+        worker.start();
+        worker.join(timeoutMillis);
+        long elapsed = System.nanoTime() - started;
+
+        if (worker.isAlive()) {
+            worker.interrupt();
+            return new Result(target, Status.TIMED_OUT, elapsed, null);
+        }
+        // Visible after join
+        return new Result(target, error[0] == null ? Status.DONE : Status.FAILED, elapsed, error[0]);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger id = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + id.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param results of a run
+     * @return the summary of a run, one line per target
+     */
+    public static String summarize(List<Result> results) {
+        long done = results.stream().filter(result -> result.getStatus() == Status.DONE).count();
+        StringBuilder summary = new StringBuilder(String.format("Dumped %d of %d JVMs%n", done, results.size()));
+        for (Result result : results) {
+            String detail;
+            if (result.getStatus() == Status.DONE) {
+                detail = result.getTarget().getDestination();
+            } else if (result.getStatus() == Status.FAILED) {
+                detail = String.valueOf(result.getError());
+            } else {
+                detail = "the agent might still write " + result.getTarget().getDestination();
+            }
+            summary.append(String.format("%10s  %-9s  %8.0f ms  %s%n", result.getTarget().getPid(), result.getStatus(), result.getElapsedNanos() / 1_000_000.0, detail));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the classes that are still to be dumped.
+ * <p>
+ * Batches are sliced with a cursor over the filtered classes, while the classes not yet seen by the writer thread are
+ * kept in a hash set. As {@link Class} doesn't override equals and hashCode, the set is identity based, which makes
+ * both membership checks and removals O(1) regardless of the number of classes.
+ */
+public final class PendingClasses {
+    private final Class<?>[] classes;
+    private final Set<Class<?>> pending;
+    private int cursor;
+
+    public PendingClasses(Class<?>[] classes) {
+        this.classes = classes;
+        this.pending = ConcurrentHashMap.newKeySet(classes.length);
+        this.pending.addAll(Arrays.asList(classes));
+    }
+
+    /**
+     * @return true if not all classes have been handed out as batches yet.
+     */
+    public boolean hasNextBatch() {
+        return cursor < classes.length;
+    }
+
+    /**
+     * Hands out the next batch of classes and advances the cursor.
+     *
+     * @param size the maximum size of the batch
+     * @return the next batch of classes, can be shorter than size at the end of the list
+     */
+    public Class<?>[] nextBatch(int size) {
+        int from = cursor;
+        cursor = Math.min(cursor + size, classes.length);
+        return Arrays.copyOfRange(classes, from, cursor);
+    }
+
+    /**
+     * Marks a class as dumped.
+     *
+     * @param clazz the class that has been seen by the transformer
+     * @return true if the class was pending, false if it has already been dumped or was never part of the filtered classes
+     */
+    public boolean remove(Class<?> clazz) {
+        return pending.remove(clazz);
+    }
+
+    /**
+     * @param clazz to look for
+     * @return true if the class has not been dumped (yet)
+     */
+    public boolean contains(Class<?> clazz) {
+        return pending.contains(clazz);
+    }
+
+    /**
+     * @return the number of classes that have not been dumped (yet)
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of classes, including the dumped ones
+     */
+    public int total() {
+        return classes.length;
+    }
+
+    /**
+     * @return the classes that have not been dumped (yet), in the order they are handed out
+     */
+    public Class<?>[] getPending() {
+        return Arrays.stream(classes).filter(pending::contains).toArray(Class<?>[]::new);
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+}
@@ -1,43 +1,104 @@
 package io.github.benjaminsoelberg.jft;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
 
-public class Report {
-    private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
-    private final boolean verbose;
-    private final boolean logToStdErr;
+/**
+ * Lines of the report, formatted only when they are printed or written. Lines added without arguments are kept as they
+ * are, so class and loader names containing a % are never taken for a format.
+ * <p>
+ * In verbose mode lines are also printed by a background {@link ConsoleWriter}, which keeps a slow console from slowing
+ * down the dump.
+ */
+public class Report implements Closeable {
+    private final ConcurrentLinkedQueue<Line> lines = new ConcurrentLinkedQueue<>();
+    private final ConsoleWriter console;
+
+    private static final class Line {
+        private final String format;
+        private final Object[] args;
+        private final Throwable throwable;
+
+        private Line(String format, Object[] args, Throwable throwable) {
+            this.format = format;
+            this.args = args;
+            this.throwable = throwable;
+        }
+
+        @Override
+        public String toString() {
+            if (throwable != null) {
+                return Utils.toString(throwable);
+            }
+            return args == null ? format : String.format(format, args);
+        }
+    }
 
     public Report(String header, boolean verbose, boolean logToStdErr) {
-        this.verbose = verbose;
-        this.logToStdErr = logToStdErr;
-        println(header);
+        console = verbose ? new ConsoleWriter(logToStdErr ? System.err : System.out, ConsoleWriter.CAPACITY) : null;
+        println(String.format(header));
     }
 
-    private void add(String line) {
-        if (verbose) {
-            if (logToStdErr) {
-                System.err.println(line);
-            } else {
-                System.out.println(line);
-            }
+    private void add(Line line) {
+        if (console != null) {
+            console.println(line);
         }
         lines.add(line);
     }
 
+    /**
+     * Adds a line as it is, without formatting it.
+     *
+     * @param line to add
+     */
     public void println(String line) {
-        println(line, "");
+        add(new Line(line, null, null));
     }
 
+    /**
+     * Adds a line, the arguments must not be modified afterwards as the line is formatted later.
+     *
+     * @param format of the line
+     * @param args   of the format
+     */
     public void println(String format, Object... args) {
-        add(String.format(format, args));
+        add(new Line(format, args, null));
     }
 
     public void dump(Throwable throwable) {
-        add(Utils.toString(throwable));
+        add(new Line(null, null, throwable));
+    }
+
+    /**
+     * Writes the report as UTF-8 without building it in memory first.
+     *
+     * @param out where the report is written, it is flushed but not closed
+     * @throws IOException if writing failed
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        String separator = "";
+        for (Line line : lines) {
+            writer.write(separator);
+            writer.write(line.toString());
+            separator = System.lineSeparator();
+        }
+        writer.flush();
     }
 
-    public String generate() {
-        return lines.stream().collect(Collectors.joining(System.lineSeparator()));
+    /**
+     * Prints the remaining lines to the console, in verbose mode.
+     */
+    @Override
+    public void close() {
+        if (console != null) {
+            console.close();
+        }
     }
 }
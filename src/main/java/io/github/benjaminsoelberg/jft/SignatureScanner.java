@@ -0,0 +1,270 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds signatures, like IOC strings, URLs or method references, in bytecode with a single pass per class.
+ * <p>
+ * All signatures are compiled into one Aho-Corasick automaton, so the time to scan a class only depends on its size
+ * and not on the number of signatures. Class names, string constants and member references are stored as (modified)
+ * UTF-8 in the constant pool, so plain text signatures match them as they are.
+ * <p>
+ * The automaton is kept in the heap of the target. It has a state per distinct signature prefix, so up to the total
+ * length of all signatures, and is stored as a complete transition table of one int per state and byte, where bytes
+ * not found in any signature share a single column. That is the fastest to scan, but grows with the number of states
+ * times the number of distinct bytes, so a table beyond {@link #MAX_TABLE_ENTRIES} entries (16 MB) isn't built.
+ * Larger signature sets keep only the transitions of the trie and follow failure links while scanning instead, which
+ * takes memory in proportion to the total length of the signatures, at the cost of a slower scan.
+ * <p>
+ * Instances are immutable and can scan from multiple threads at a time.
+ */
+public final class SignatureScanner {
+    public static final String HITS_ENTRY_NAME = "signature-hits.txt";
+    // Prefix of a signature given as hex bytes rather than text
+    public static final String HEX_PREFIX = "hex:";
+    // Largest complete transition table, in ints
+    public static final int MAX_TABLE_ENTRIES = 4 * 1024 * 1024;
+
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final List<String> names;
+    private final int[] columns = new int[256];
+    private final int width;
+    // Complete transition table, or null if too large
+    private final int[] transitions;
+    // The transitions of the trie and the failure links, only kept without a complete transition table
+    private final int[][] trieColumns;
+    private final int[][] trieTargets;
+    private final int[] failures;
+    private final int[][] matches;
+
+    /**
+     * @param names    of the signatures, as reported when they match
+     * @param patterns the bytes of each signature, in the same order as the names
+     * @throws IllegalArgumentException if a signature is empty
+     */
+    public SignatureScanner(List<String> names, List<byte[]> patterns) {
+        this(names, patterns, MAX_TABLE_ENTRIES);
+    }
+
+    SignatureScanner(List<String> names, List<byte[]> patterns, int maxTableEntries) {
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+
+        // Only bytes used by a signature get their own column, all others share column 0
+        int used = 1;
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                if (columns[b & 0xFF] == 0) {
+                    columns[b & 0xFF] = used++;
+                }
+            }
+        }
+        width = used;
+
+        // Sparse trie, where nothing ever leads back to the root
+        List<int[]> keys = new ArrayList<>();
+        List<int[]> targets = new ArrayList<>();
+        List<int[]> outputs = new ArrayList<>();
+        keys.add(NO_MATCHES);
+        targets.add(NO_MATCHES);
+        outputs.add(NO_MATCHES);
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).length == 0) {
+                throw new IllegalArgumentException(String.format("Empty signature [%s]", names.get(i)));
+            }
+            int state = 0;
+            for (byte b : patterns.get(i)) {
+                int column = columns[b & 0xFF];
+                int next = find(keys.get(state), targets.get(state), column);
+                if (next < 0) {
+                    next = keys.size();
+                    keys.set(state, append(keys.get(state), column));
+                    targets.set(state, append(targets.get(state), next));
+                    keys.add(NO_MATCHES);
+                    targets.add(NO_MATCHES);
+                    outputs.add(NO_MATCHES);
+                }
+                state = next;
+            }
+            outputs.set(state, append(outputs.get(state), i));
+        }
+
+        // Breadth first, so the failure state of each state, being shallower, is done before it
+        int states = keys.size();
+        int[] order = new int[states];
+        int[] fail = new int[states];
+        int head = 0;
+        int tail = 0;
+        order[tail++] = 0;
+        while (head < tail) {
+            int state = order[head++];
+            int[] stateKeys = keys.get(state);
+            for (int j = 0; j < stateKeys.length; j++) {
+                int child = targets.get(state)[j];
+                if (state != 0) {
+                    int failure = fail[state];
+                    int next;
+                    while ((next = find(keys.get(failure), targets.get(failure), stateKeys[j])) < 0 && failure != 0) {
+                        failure = fail[failure];
+                    }
+                    fail[child] = Math.max(next, 0);
+                }
+                // Every state also matches what its failure state matches
+                if (outputs.get(fail[child]).length > 0) {
+                    outputs.set(child, merge(outputs.get(child), outputs.get(fail[child])));
+                }
+                order[tail++] = child;
+            }
+        }
+        matches = outputs.toArray(new int[0][]);
+
+        if ((long) states * width <= maxTableEntries) {
+            // Each missing transition is taken from the failure state, whose row is already complete
+            transitions = new int[states * width];
+            for (int i = 0; i < states; i++) {
+                int state = order[i];
+                int row = state * width;
+                if (state != 0) {
+                    System.arraycopy(transitions, fail[state] * width, transitions, row, width);
+                }
+                int[] stateKeys = keys.get(state);
+                for (int j = 0; j < stateKeys.length; j++) {
+                    transitions[row + stateKeys[j]] = targets.get(state)[j];
+                }
+            }
+            trieColumns = null;
+            trieTargets = null;
+            failures = null;
+        } else {
+            transitions = null;
+            trieColumns = keys.toArray(new int[0][]);
+            trieTargets = targets.toArray(new int[0][]);
+            failures = fail;
+        }
+    }
+
+    /**
+     * Loads signatures from a file with one signature per line. Lines are matched as UTF-8 text, or as bytes when
+     * prefixed with "hex:". Empty lines and lines starting with # are ignored.
+     *
+     * @param file to load
+     * @return the compiled signatures
+     * @throws IOException if the file couldn't be read or holds an invalid signature
+     */
+    public static SignatureScanner load(File file) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<byte[]> patterns = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            byte[] pattern;
+            if (line.startsWith(HEX_PREFIX)) {
+                String hex = line.substring(HEX_PREFIX.length()).replace(" ", "");
+                if (hex.isEmpty() || !hex.matches("([0-9a-fA-F]{2})+")) {
+                    throw new IOException(String.format("Invalid signature line [%s]", line));
+                }
+                pattern = Utils.fromHex(hex);
+            } else {
+                pattern = Utils.fromUtf8String(line);
+            }
+            names.add(line);
+            patterns.add(pattern);
+        }
+        if (names.isEmpty()) {
+            throw new IOException(String.format("No signatures in %s", file));
+        }
+        return new SignatureScanner(names, patterns);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int signature) {
+        return names.get(signature);
+    }
+
+    /**
+     * @param bytes to scan
+     * @return the signatures found, in ascending order and each only once
+     */
+    public int[] scan(byte[] bytes) {
+        BitSet found = null;
+        int state = 0;
+        for (byte b : bytes) {
+            int column = columns[b & 0xFF];
+            state = transitions != null ? transitions[state * width + column] : next(state, column);
+            if (matches[state].length > 0) {
+                if (found == null) {
+                    found = new BitSet(names.size());
+                }
+                for (int signature : matches[state]) {
+                    found.set(signature);
+                }
+            }
+        }
+        return found == null ? NO_MATCHES : found.stream().toArray();
+    }
+
+    /**
+     * Follows the failure links until a state has a transition for the column, without a complete transition table.
+     */
+    private int next(int state, int column) {
+        while (true) {
+            int next = find(trieColumns[state], trieTargets[state], column);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    /**
+     * @return the number of states of the automaton
+     */
+    int getStates() {
+        return matches.length;
+    }
+
+    /**
+     * @return true if the automaton is a complete transition table
+     */
+    boolean isTable() {
+        return transitions != null;
+    }
+
+    /**
+     * @return the target of the transition for the column, or -1 if there is none
+     */
+    private static int find(int[] keys, int[] targets, int column) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == column) {
+                return targets[i];
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(int[] signatures, int signature) {
+        int[] appended = Arrays.copyOf(signatures, signatures.length + 1);
+        appended[signatures.length] = signature;
+        return appended;
+    }
+
+    private static int[] merge(int[] signatures, int[] inherited) {
+        int[] merged = Arrays.copyOf(signatures, signatures.length + inherited.length);
+        System.arraycopy(inherited, 0, merged, signatures.length, inherited.length);
+        return merged;
+    }
+}
@@ -3,6 +3,8 @@ package io.github.benjaminsoelberg.jft;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
@@ -36,6 +38,15 @@ public class Utils {
         return hex.toString();
     }
 
+    public static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static byte[] fromHex(String hexString) {
         if (hexString.length() % 2 == 1) {
             throw new IndexOutOfBoundsException(hexString);
@@ -87,6 +98,20 @@ public class Utils {
         }
     }
 
+    /**
+     * Builds the jar directory of a class loader, i.e. the names of all class loaders from the bootloader and down to
+     * (and including) the given class loader.
+     *
+     * @param classLoader to build the path for, null for the bootloader
+     * @return path ending with a slash, like "[bootloader]/[platform]/[app]/"
+     */
+    public static String toClassLoaderPath(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return toClassLoaderName(null) + "/";
+        }
+        return toClassLoaderPath(classLoader.getParent()) + toClassLoaderName(classLoader) + "/";
+    }
+
     private static String toClassLoaderName(ClassLoader classLoader, String defaultName, boolean appendClassName) {
         String name = defaultName.trim();
         if (classLoader != null) {
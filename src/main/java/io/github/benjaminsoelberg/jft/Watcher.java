@@ -0,0 +1,263 @@
+package io.github.benjaminsoelberg.jft;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Captures classes defined or redefined after the dump, like injected or hot swapped code, into rotating jar segments.
+ * <p>
+ * The transformer stays installed until the watcher is closed. It isn't retransformation capable, so it never sees the
+ * retransformations of later dumps. To keep class loading fast, the native class name is filtered first, and captured
+ * classes are handed to a writer thread through a bounded queue. Classes are dropped, and counted, when the queue is
+ * full rather than blocking the application.
+ * <p>
+ * Each segment is a complete jar with a watch.log entry listing the captured classes. A segment is closed when it
+ * reaches its size, when it has been open for a minute, or when a class is captured twice, so a class never has to be
+ * overwritten.
+ */
+public class Watcher implements ClassFileTransformer, Closeable {
+    public static final String LOG_ENTRY_NAME = "watch.log";
+    public static final int QUEUE_SIZE = 4096;
+    public static final long MAX_QUEUED_BYTES = 32L * 1024 * 1024;
+
+    private static final long SEGMENT_MAX_AGE_MILLIS = 60_000;
+    private static final long POLL_MILLIS = 1_000;
+    private static final Capture END_OF_CAPTURES = new Capture(null, null, null, false);
+
+    private final Instrumentation instrumentation;
+    private final Options options;
+    private final Predicate<String> filter;
+    private final ClassLoader platformClassLoader = ClassLoader.getPlatformClassLoader();
+    private final ClassLoader agentClassLoader = Watcher.class.getClassLoader();
+    private final String agentPackage = Utils.toNativeClassName(Watcher.class.getPackageName()) + "/";
+    private final BlockingQueue<Capture> captures;
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicReference<Throwable> latestException = new AtomicReference<>();
+    private final Deque<File> segments = new ArrayDeque<>();
+    private final String segmentBase;
+    private final Thread writer;
+    private int segmentNumber;
+    private JarWriter segment;
+    private Set<String> segmentPaths;
+    private StringBuilder segmentLog;
+    private long segmentBytes;
+    private long segmentOpened;
+
+    private static final class Capture {
+        private final ClassLoader loader;
+        private final String nativeClassName;
+        private final byte[] bytecode;
+        private final boolean redefined;
+
+        private Capture(ClassLoader loader, String nativeClassName, byte[] bytecode, boolean redefined) {
+            this.loader = loader;
+            this.nativeClassName = nativeClassName;
+            this.bytecode = bytecode;
+            this.redefined = redefined;
+        }
+    }
+
+    /**
+     * @param instrumentation to install the transformer with
+     * @param options         of the dump, segments are named after its destination
+     */
+    public Watcher(Instrumentation instrumentation, Options options) {
+        this(instrumentation, options, QUEUE_SIZE, MAX_QUEUED_BYTES);
+    }
+
+    Watcher(Instrumentation instrumentation, Options options, int queueSize, long maxQueuedBytes) {
+        this.instrumentation = instrumentation;
+        this.options = options;
+        this.filter = new ClassNameFilter(options.getFilter(), options.isInvertedFilter(), true);
+        this.captures = new ArrayBlockingQueue<>(queueSize);
+        this.maxQueuedBytes = maxQueuedBytes;
+        String destination = options.getDestination();
+        segmentBase = destination.toLowerCase(Locale.ROOT).endsWith(".jar") ? destination.substring(0, destination.length() - 4) : destination;
+        writer = new Thread(this::write, "jft-watch");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Installs the transformer and starts writing segments.
+     */
+    public void start() {
+        writer.start();
+        instrumentation.addTransformer(this, false);
+    }
+
+    @Override
+    public byte[] transform(Module module, ClassLoader loader, String nativeClassName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        try {
+            if (nativeClassName == null || classfileBuffer == null || !filter.test(nativeClassName)) {
+                return null;
+            }
+            if (loader == null ? options.isIgnoreSystemClassloader() : loader == platformClassLoader && options.isIgnorePlatformClassloader()) {
+                return null;
+            }
+            if (loader == agentClassLoader && nativeClassName.startsWith(agentPackage) && nativeClassName.indexOf('/', agentPackage.length()) < 0) {
+                // Never capture the agent itself
+                return null;
+            }
+
+            if (queuedBytes.addAndGet(classfileBuffer.length) > maxQueuedBytes
+                || !captures.offer(new Capture(loader, nativeClassName, classfileBuffer, classBeingRedefined != null))) {
+                queuedBytes.addAndGet(-classfileBuffer.length);
+                dropped.incrementAndGet();
+            }
+        } catch (Throwable th) {
+            // Keep latest exception for later retrieval
+            latestException.set(th);
+        }
+
+        // Signal that no changes were made to the bytecode
+        return null;
+    }
+
+    /**
+     * Removes the transformer, writes what has been captured and closes the last segment.
+     */
+    @Override
+    public void close() {
+        instrumentation.removeTransformer(this);
+        try {
+            captures.put(END_OF_CAPTURES);
+            writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            latestException.set(ie);
+        }
+    }
+
+    public long getCaptured() {
+        return captured.get();
+    }
+
+    /**
+     * @return the number of classes dropped as the writer couldn't keep up
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of segments written, including deleted ones
+     */
+    public int getSegments() {
+        return segmentNumber;
+    }
+
+    public Throwable getLatestException() {
+        return latestException.get();
+    }
+
+    /**
+     * @param number of a segment, starting from 1
+     * @return the file of the segment
+     */
+    public File getSegmentFile(int number) {
+        return new File(String.format("%s-watch-%05d.jar", segmentBase, number));
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                Capture capture = captures.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (capture == END_OF_CAPTURES) {
+                    break;
+                }
+                try {
+                    if (capture != null) {
+                        queuedBytes.addAndGet(-capture.bytecode.length);
+                        writeCapture(capture);
+                    } else if (segment != null && System.currentTimeMillis() - segmentOpened > SEGMENT_MAX_AGE_MILLIS) {
+                        // Make what has been captured readable
+                        closeSegment();
+                    }
+                } catch (Throwable th) {
+                    // Keep latest exception for later retrieval
+                    latestException.set(th);
+                }
+            }
+        } catch (InterruptedException ie) {
+            latestException.set(ie);
+        }
+
+        try {
+            closeSegment();
+        } catch (Throwable th) {
+            latestException.set(th);
+        }
+    }
+
+    private void writeCapture(Capture capture) throws IOException {
+        String path = Utils.toClassLoaderPath(capture.loader) + capture.nativeClassName + ".class";
+        if (segment != null && segmentPaths.contains(path)) {
+            closeSegment();
+        }
+        if (segment == null) {
+            openSegment();
+        }
+
+        segment.write(path, capture.bytecode);
+        segmentPaths.add(path);
+        segmentLog.append(Instant.now()).append('\t').append(capture.redefined ? "redefine" : "define").append('\t')
+                .append(path).append('\t').append(capture.bytecode.length).append('\n');
+        segmentBytes += capture.bytecode.length;
+        captured.incrementAndGet();
+
+        if (segmentBytes >= options.getSegmentMegabytes() * 1024L * 1024L) {
+            closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file = getSegmentFile(++segmentNumber);
+        segment = new JarWriter(new FileOutputStream(file), 1, options.getLevel());
+        segmentPaths = new HashSet<>();
+        segmentLog = new StringBuilder();
+        segmentBytes = 0;
+        segmentOpened = System.currentTimeMillis();
+        segments.add(file);
+
+        while (options.getMaxSegments() > 0 && segments.size() > options.getMaxSegments()) {
+            File oldest = segments.poll();
+            if (!oldest.delete()) {
+                latestException.set(new IOException("Unable to delete " + oldest));
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.write(LOG_ENTRY_NAME, Utils.fromUtf8String(segmentLog.toString()));
+        } finally {
+            segment.close();
+            segment = null;
+            segmentPaths = null;
+            segmentLog = null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class BatchSchedulerTest {
+
+    private static final long ONE_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void testFixedBatchSizeWithoutBudget() {
+        BatchScheduler scheduler = new BatchScheduler(100, 0, 0);
+        scheduler.record(100, 1000 * ONE_MS);
+        Assertions.assertEquals(100, scheduler.getBatchSize());
+        scheduler.record(100, 0);
+        Assertions.assertEquals(100, scheduler.getBatchSize());
+    }
+
+    @Test
+    void testBatchSizeGrowsTowardsBudget() {
+        BatchScheduler scheduler = new BatchScheduler(100, 5, 0);
+        // 0.01 ms per class, the budget fits 500 classes but the size can at most double per batch
+        scheduler.record(100, ONE_MS);
+        Assertions.assertEquals(200, scheduler.getBatchSize());
+        scheduler.record(200, 2 * ONE_MS);
+        Assertions.assertEquals(400, scheduler.getBatchSize());
+        scheduler.record(400, 4 * ONE_MS);
+        Assertions.assertEquals(500, scheduler.getBatchSize());
+        scheduler.record(500, 5 * ONE_MS);
+        Assertions.assertEquals(500, scheduler.getBatchSize());
+    }
+
+    @Test
+    void testBatchSizeShrinksTowardsBudget() {
+        BatchScheduler scheduler = new BatchScheduler(100, 5, 0);
+        // 1 ms per class, the budget fits 5 classes but the size can at most halve per batch
+        scheduler.record(100, 100 * ONE_MS);
+        Assertions.assertEquals(50, scheduler.getBatchSize());
+        scheduler.record(50, 50 * ONE_MS);
+        Assertions.assertEquals(25, scheduler.getBatchSize());
+        scheduler.record(25, 25 * ONE_MS);
+        Assertions.assertEquals(12, scheduler.getBatchSize());
+        scheduler.record(12, 12 * ONE_MS);
+        Assertions.assertEquals(6, scheduler.getBatchSize());
+        scheduler.record(6, 6 * ONE_MS);
+        Assertions.assertEquals(5, scheduler.getBatchSize());
+    }
+
+    @Test
+    void testBatchSizeIsBounded() {
+        BatchScheduler scheduler = new BatchScheduler(1, 5, 0);
+        scheduler.record(1, 1000 * ONE_MS);
+        Assertions.assertEquals(1, scheduler.getBatchSize());
+
+        scheduler = new BatchScheduler(BatchScheduler.MAX_BATCH_SIZE, 5, 0);
+        scheduler.record(BatchScheduler.MAX_BATCH_SIZE, 0);
+        Assertions.assertEquals(BatchScheduler.MAX_BATCH_SIZE, scheduler.getBatchSize());
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class BudgetTest {
+
+    @Test
+    void testUnlimitedBudget() throws InterruptedException {
+        Budget budget = new Budget(0, 0, 0);
+        budget.addThread(Thread.currentThread());
+        Thread.sleep(5);
+        Assertions.assertNull(budget.getExhausted());
+    }
+
+    @Test
+    void testWallTimeBudget() throws InterruptedException {
+        Budget budget = new Budget(1, 0, 0);
+        Thread.sleep(5);
+        Assertions.assertEquals("wall time of 1 ms exceeded", budget.getExhausted());
+    }
+
+    @Test
+    void testCpuTimeBudget() {
+        Budget budget = new Budget(0, 1, 0);
+        Assertions.assertNull(budget.getExhausted());
+        budget.addThread(Thread.currentThread());
+        if (!budget.isCpuTimeSupported()) {
+            return;
+        }
+        // Burn CPU until the thread has used more than the budget
+        long sum = 0;
+        while (budget.getCpuNanos() <= 1_000_000) {
+            sum += System.nanoTime() % 7;
+        }
+        Assertions.assertTrue(sum >= 0);
+        Assertions.assertEquals("CPU time of 1 ms exceeded", budget.getExhausted());
+    }
+
+    @Test
+    void testCpuTimeUsedBeforeAddingIsNotCounted() {
+        Budget budget = new Budget(0, 50, 0);
+        if (!budget.isCpuTimeSupported()) {
+            return;
+        }
+        // Use well over the budget before the thread is added, like an attach listener running earlier dumps
+        Budget before = new Budget(0, 0, 0);
+        before.addThread(Thread.currentThread());
+        long sum = 0;
+        while (before.getCpuNanos() <= 100_000_000) {
+            sum += System.nanoTime() % 7;
+        }
+        Assertions.assertTrue(sum >= 0);
+
+        budget.addThread(Thread.currentThread());
+        Assertions.assertTrue(budget.getCpuNanos() < 50_000_000);
+        Assertions.assertNull(budget.getExhausted());
+    }
+
+    @Test
+    void testHeapBudget() {
+        Budget budget = new Budget(0, 0, 1);
+        byte[][] garbage = new byte[64][];
+        for (int i = 0; i < garbage.length && budget.getExhausted() == null; i++) {
+            garbage[i] = new byte[1024 * 1024];
+        }
+        Assertions.assertEquals("heap growth of 1 MB exceeded", budget.getExhausted());
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+class BytecodeArenaTest {
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testBytecodeIsCopiedOffHeap() throws IOException {
+        try (BytecodeArena arena = new BytecodeArena(1024 * 1024)) {
+            byte[] bytecode = {1, 2, 3};
+            ByteBuffer copy = arena.add(bytecode);
+            bytecode[0] = 42;
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3}, toBytes(copy));
+            Assertions.assertTrue(copy.isDirect());
+            Assertions.assertTrue(copy.isReadOnly());
+            Assertions.assertEquals(0, copy.position());
+            Assertions.assertEquals(3, arena.getUsed());
+        }
+    }
+
+    @Test
+    void testBlocksAreMappedUntilFull() throws IOException {
+        // Two blocks of 8 bytes and one of 4
+        try (BytecodeArena arena = new BytecodeArena(20, 8)) {
+            ByteBuffer first = arena.add(new byte[]{1, 1, 1, 1, 1});
+            // Doesn't fit the rest of the first block
+            ByteBuffer second = arena.add(new byte[]{2, 2, 2, 2, 2, 2});
+            ByteBuffer third = arena.add(new byte[]{3, 3});
+            ByteBuffer fourth = arena.add(new byte[]{4, 4, 4, 4});
+            Assertions.assertNull(arena.add(new byte[]{5}));
+            // Larger than a block
+            Assertions.assertNull(arena.add(new byte[9]));
+
+            Assertions.assertArrayEquals(new byte[]{1, 1, 1, 1, 1}, toBytes(first));
+            Assertions.assertArrayEquals(new byte[]{2, 2, 2, 2, 2, 2}, toBytes(second));
+            Assertions.assertArrayEquals(new byte[]{3, 3}, toBytes(third));
+            Assertions.assertArrayEquals(new byte[]{4, 4, 4, 4}, toBytes(fourth));
+            Assertions.assertEquals(17, arena.getUsed());
+        }
+    }
+}
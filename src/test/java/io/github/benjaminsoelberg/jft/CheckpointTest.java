@@ -0,0 +1,75 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointTest {
+
+    @Test
+    void testCheckpointListsJarPaths() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.add(String.class);
+        checkpoint.add(CheckpointTest.class);
+        checkpoint.add(String.class);
+        Assertions.assertEquals(2, checkpoint.size());
+        Assertions.assertTrue(checkpoint.contains(String.class));
+        Assertions.assertFalse(checkpoint.contains(Integer.class));
+        Assertions.assertEquals("[bootloader]/java/lang/String.class\n[bootloader]/[platform]/[app]/io/github/benjaminsoelberg/jft/CheckpointTest.class\n",
+                Utils.toUtf8String(checkpoint.toBytes()));
+    }
+
+    @Test
+    void testLoadCheckpointFile() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.add(String.class);
+        File file = File.createTempFile("checkpoint", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), checkpoint.toBytes());
+
+        Checkpoint loaded = Checkpoint.load(file);
+        Assertions.assertEquals(1, loaded.size());
+        Assertions.assertTrue(loaded.contains(String.class));
+    }
+
+    @Test
+    void testLoadJarWithCheckpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.add(Integer.class);
+        File file = File.createTempFile("stopped", ".jar");
+        file.deleteOnExit();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), 1, Deflater.DEFAULT_COMPRESSION)) {
+            jar.write(Checkpoint.ENTRY_NAME, checkpoint.toBytes());
+        }
+
+        Assertions.assertTrue(Checkpoint.load(file).contains(Integer.class));
+    }
+
+    @Test
+    void testLoadCompleteJarThrowsIOException() throws IOException {
+        File file = File.createTempFile("complete", ".jar");
+        file.deleteOnExit();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), 1, Deflater.DEFAULT_COMPRESSION)) {
+            jar.write("report.txt", new byte[0]);
+        }
+
+        assertThrows(IOException.class, () -> Checkpoint.load(file));
+    }
+
+    @Test
+    void testInvalidLineThrowsIOException() throws IOException {
+        File file = File.createTempFile("checkpoint", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Utils.fromUtf8String("java.lang.String\n"));
+
+        Exception exception = assertThrows(IOException.class, () -> Checkpoint.load(file));
+        Assertions.assertEquals("Invalid checkpoint line [java.lang.String]", exception.getMessage());
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.sql.Driver;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+class ClassDiscoveryTest {
+
+    // String is loaded by the bootloader, Driver by the platform class loader and the test by the app class loader
+    private static final Class<?>[] LOADED = new Class<?>[]{
+            String.class, Driver.class, Assertions.class, ClassDiscoveryTest.class, Options.class, Thread.class
+    };
+
+    @Test
+    void testAgentClassesAreExcluded() throws ParserException {
+        Assertions.assertEquals(List.of(String.class, Driver.class, Assertions.class, Thread.class), discover(Set.of(), "12345"));
+    }
+
+    @Test
+    void testClassLoaderOptions() throws ParserException {
+        Assertions.assertEquals(List.of(Driver.class, Assertions.class), discover(Set.of(), "-s", "12345"));
+        Assertions.assertEquals(List.of(String.class, Assertions.class, Thread.class), discover(Set.of(), "-p", "12345"));
+    }
+
+    @Test
+    void testUnmodifiableClassesAreExcluded() throws ParserException {
+        Assertions.assertEquals(List.of(String.class, Driver.class, Assertions.class), discover(Set.of(Thread.class), "12345"));
+    }
+
+    @Test
+    void testNameFilterAndOrderIsKept() throws ParserException {
+        Assertions.assertEquals(List.of(String.class, Thread.class), discover(Set.of(), "-f", "java\\.lang\\..*", "12345"));
+    }
+
+    @Test
+    void testParallelDiscovery() throws ParserException {
+        Class<?>[] loaded = Collections.nCopies(ClassDiscovery.PARALLEL_THRESHOLD, LOADED).stream().flatMap(Arrays::stream).toArray(Class<?>[]::new);
+        Class<?>[] classes = new ClassDiscovery(createInstrumentation(loaded, Set.of()), new Options(new String[]{"-s", "12345"})).discover();
+        Assertions.assertEquals(2 * ClassDiscovery.PARALLEL_THRESHOLD, classes.length);
+        Assertions.assertEquals(List.of(Driver.class, Assertions.class, Driver.class), Arrays.asList(classes).subList(0, 3));
+    }
+
+    @Test
+    void testRememberedClassesAreOnlyFilteredOnce() throws ParserException {
+        Class<?>[][] loaded = {{String.class, Driver.class}};
+        int[] checks = new int[1];
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAllLoadedClasses":
+                    return loaded[0];
+                case "isModifiableClass":
+                    checks[0]++;
+                    return true;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        ClassDiscovery discovery = new ClassDiscovery(instrumentation, new Options(new String[]{"12345"}));
+        discovery.remember();
+        Assertions.assertEquals(List.of(String.class, Driver.class), Arrays.asList(discovery.discoverNew()));
+        Assertions.assertEquals(2, checks[0]);
+
+        loaded[0] = new Class<?>[]{String.class, Driver.class, Thread.class};
+        Assertions.assertEquals(List.of(Thread.class), Arrays.asList(discovery.discoverNew()));
+        Assertions.assertEquals(3, checks[0]);
+
+        discovery.reject(Driver.class);
+        Assertions.assertEquals(List.of(String.class, Thread.class), Arrays.asList(discovery.discover()));
+        Assertions.assertEquals(3, checks[0]);
+    }
+
+    @Test
+    void testLoaderScopedDiscoveryOnlyListsSelectedLoaders() throws ParserException {
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getInitiatedClasses":
+                    // The app class loader also initiated the classes it delegated to its parents
+                    return args[0] == ClassLoader.getSystemClassLoader() ? LOADED : new Class<?>[0];
+                case "getAllLoadedClasses":
+                    return LOADED;
+                case "isModifiableClass":
+                    return true;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        ClassDiscovery discovery = new ClassDiscovery(instrumentation, new Options(new String[]{"--loader", "app", "12345"}));
+        Assertions.assertEquals(List.of(Assertions.class), Arrays.asList(discovery.discover()));
+        Assertions.assertEquals(LOADED.length, discovery.getLoadedClasses());
+        Assertions.assertEquals(1, discovery.getSelectedLoaders());
+
+        discovery = new ClassDiscovery(instrumentation, new Options(new String[]{"--loader", "app|platform", "-f", "java\\..*", "12345"}));
+        Assertions.assertEquals(List.of(), Arrays.asList(discovery.discover()));
+        Assertions.assertEquals(2, discovery.getSelectedLoaders());
+    }
+
+    @Test
+    void testForgetfulDiscoveryFindsEverything() throws ParserException {
+        ClassDiscovery discovery = new ClassDiscovery(createInstrumentation(LOADED, Set.of()), new Options(new String[]{"-f", "java\\.lang\\..*", "12345"}));
+        discovery.reject(String.class);
+        Assertions.assertEquals(List.of(String.class, Thread.class), Arrays.asList(discovery.discoverNew()));
+        Assertions.assertEquals(List.of(String.class, Thread.class), Arrays.asList(discovery.discoverNew()));
+    }
+
+    private List<Class<?>> discover(Set<Class<?>> unmodifiable, String... args) throws ParserException {
+        ClassDiscovery discovery = new ClassDiscovery(createInstrumentation(LOADED, unmodifiable), new Options(args));
+        List<Class<?>> classes = Arrays.asList(discovery.discover());
+        Assertions.assertEquals(LOADED.length, discovery.getLoadedClasses());
+        return classes;
+    }
+
+    private Instrumentation createInstrumentation(Class<?>[] loaded, Set<Class<?>> unmodifiable) {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAllLoadedClasses":
+                    return loaded;
+                case "isModifiableClass":
+                    return !unmodifiable.contains((Class<?>) args[0]);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -6,7 +6,12 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Exchanger;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 
@@ -20,6 +25,241 @@ class ClassDumperTest {
         Assertions.assertTrue(new File("target/dump.jar").exists());
     }
 
+    @Test
+    void testSelfAttachCanStream() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-stream.jar", "-v", "--stream", "--jfr", "-f", "java\\.lang\\.String", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-stream.jar")) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            Assertions.assertNotNull(jar.getEntry("report.txt"));
+            String metrics = Utils.toUtf8String(jar.getInputStream(jar.getEntry(Metrics.ENTRY_NAME)).readAllBytes());
+            Assertions.assertTrue(metrics.contains("\"accepted\": 1, \"captured\": 1"));
+            Assertions.assertTrue(metrics.contains("\"discovery\": {\"wallMillis\": "));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpIndexed() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-indexed.jar", "--indexed", "-f", "java\\.lang\\.(String|Integer)", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (IndexedDump dump = IndexedDump.open(new File("target/dump-indexed" + IndexedDump.EXTENSION))) {
+            Assertions.assertEquals(2, dump.size());
+            HashManifest manifest = HashManifest.load(new File("target/dump-indexed.jar"));
+            ByteBuffer bytecode = dump.getBytecode("java.lang.String", "[bootloader]/");
+            byte[] bytes = new byte[bytecode.remaining()];
+            bytecode.get(bytes);
+            Assertions.assertArrayEquals(Utils.sha256(bytes), manifest.get("[bootloader]/java/lang/String.class"));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpOffHeap() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-off-heap.jar", "--off-heap-mb", "1", "--dedup", "-f", "java\\.lang\\..*", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-off-heap.jar")) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("bytes of bytecode off the heap in an arena of 1 MB"));
+            // java.lang alone is more than a MB
+            Assertions.assertTrue(report.contains("WARNING: The arena was full"));
+            Assertions.assertTrue(report.contains("duplicate classes"));
+        }
+        HashManifest manifest = HashManifest.load(new File("target/dump-off-heap.jar"));
+        try (JarFile jar = new JarFile("target/dump-off-heap.jar")) {
+            // Classes from the arena and from the heap are written alike
+            for (String path : manifest.getHashes().keySet()) {
+                Assertions.assertArrayEquals(manifest.get(path), Utils.sha256(jar.getInputStream(jar.getEntry(path)).readAllBytes()));
+            }
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpMatchesOnly() throws Exception {
+        File signatures = File.createTempFile("signatures", ".txt");
+        signatures.deleteOnExit();
+        Files.write(signatures.toPath(), List.of("# Only found in String", "compareToIgnoreCase", "hex:00112233445566778899"));
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-matches.jar", "--signatures", signatures.getPath(), "--matches-only", "-f", "java\\.lang\\.(String|Integer)", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-matches.jar")) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            Assertions.assertNull(jar.getEntry("[bootloader]/java/lang/Integer.class"));
+            String hits = Utils.toUtf8String(jar.getInputStream(jar.getEntry(SignatureScanner.HITS_ENTRY_NAME)).readAllBytes());
+            Assertions.assertEquals("[bootloader]/java/lang/String.class\tcompareToIgnoreCase\n", hits);
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("Scanned 2 classes for 2 signatures, 1 classes matched"));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanVerify() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-verified.jar", "--verify", "--threads", "2", "-f", "org\\.junit\\.jupiter\\.api\\.(Assertions|Test)|java\\.lang\\.String", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-verified.jar")) {
+            // Loaded from the JUnit jar and rebuilt by the JVM, but unchanged
+            Assertions.assertTrue(jar.stream().noneMatch(entry -> entry.getName().contains("/org/junit/")));
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            String verification = Utils.toUtf8String(jar.getInputStream(jar.getEntry(ClassDumper.VERIFICATION_ENTRY_NAME)).readAllBytes());
+            Assertions.assertEquals("ORIGINLESS\t[bootloader]/java/lang/String.class\t\n", verification);
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("Verified 3 classes against 1 jars and directories:"));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpSelectedLoader() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-loader.jar", "--loader", "bootloader", "-f", "java\\.lang\\.String|java\\.sql\\.Driver", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-loader.jar")) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            Assertions.assertTrue(jar.stream().noneMatch(entry -> entry.getName().endsWith("/java/sql/Driver.class")));
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("Accepted 1 of "));
+            Assertions.assertTrue(report.contains(" classes loaded by 1 selected class loaders in "));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanTakeInventory() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-inventory.jar", "--inventory", "-f", "java\\.lang\\.(String|Integer)|java\\.util\\.List", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-inventory.jar")) {
+            Assertions.assertTrue(jar.stream().noneMatch(entry -> entry.getName().endsWith(".class")));
+            Assertions.assertNull(jar.getEntry(HashManifest.ENTRY_NAME));
+            String inventory = Utils.toUtf8String(jar.getInputStream(jar.getEntry(Inventory.ENTRY_NAME)).readAllBytes());
+            Assertions.assertTrue(inventory.startsWith("loader\t[bootloader]/\t3\t2\npackage\t[bootloader]/\tjava.lang\t2\npackage\t[bootloader]/\tjava.util\t1\n"), inventory);
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("Took an inventory of 3 classes in 2 packages and "));
+            Assertions.assertFalse(report.contains("Dumping"));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpDelta() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-baseline.jar", "-f", "java\\.lang\\.(String|Integer)", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-delta.jar", "--baseline", "target/dump-baseline.jar", "-f", "java\\.lang\\.(String|Long)", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        try (JarFile jar = new JarFile("target/dump-delta.jar")) {
+            // Unchanged classes are left out, but still part of the manifest
+            Assertions.assertNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/Long.class"));
+            String manifest = Utils.toUtf8String(jar.getInputStream(jar.getEntry(HashManifest.ENTRY_NAME)).readAllBytes());
+            Assertions.assertTrue(manifest.contains("  [bootloader]/java/lang/String.class"));
+            String report = Utils.toUtf8String(jar.getInputStream(jar.getEntry("report.txt")).readAllBytes());
+            Assertions.assertTrue(report.contains("new     [bootloader]/java/lang/Long.class"));
+            Assertions.assertTrue(report.contains("missing [bootloader]/java/lang/Integer.class"));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanStreamToReceiver() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        File destination = new File("target/dump-received.jar");
+        try (DumpReceiver receiver = new DumpReceiver(destination)) {
+            // The agent must not touch the destination itself
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/no-such-dir/dump.jar", "--connect", receiver.getPort() + ":" + receiver.getToken(), "-f", "java\\.lang\\.String", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+            // The length must only be read once the receiver is done
+            long received = receiver.await();
+            Assertions.assertEquals(destination.length(), received);
+        }
+        Assertions.assertFalse(new File("target/no-such-dir").exists());
+        try (JarFile jar = new JarFile(destination)) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            Assertions.assertNotNull(jar.getEntry("report.txt"));
+        }
+    }
+
+    @Test
+    void testResidentAgent() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        Assertions.assertNotNull(Exchanger.class);
+        try {
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-resident.jar", "--resident", "-f", "java\\.lang\\.String|java\\.util\\.concurrent\\.(Exchanger|Phaser)", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+            Class.forName("java.util.concurrent.Phaser");
+
+            // Only the classes loaded since, using the filter of the first load
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-resident-delta.jar", "--command", "delta", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+            try (JarFile jar = new JarFile("target/dump-resident-delta.jar")) {
+                Assertions.assertNotNull(jar.getEntry("[bootloader]/java/util/concurrent/Phaser.class"));
+                Assertions.assertNull(jar.getEntry("[bootloader]/java/util/concurrent/Exchanger.class"));
+                Assertions.assertNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+            }
+
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-resident-again.jar", "--command", "dump", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+            try (JarFile jar = new JarFile("target/dump-resident-again.jar")) {
+                Assertions.assertNotNull(jar.getEntry("[bootloader]/java/util/concurrent/Phaser.class"));
+                Assertions.assertNotNull(jar.getEntry("[bootloader]/java/util/concurrent/Exchanger.class"));
+                Assertions.assertNotNull(jar.getEntry("[bootloader]/java/lang/String.class"));
+                Assertions.assertNull(jar.getEntry("[bootloader]/java/lang/Integer.class"));
+            }
+        } finally {
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-resident-shutdown.jar", "--command", "shutdown", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        }
+        Assertions.assertFalse(new File("target/dump-resident-shutdown.jar").exists());
+    }
+
+    @Test
+    void testWatchCapturesNewClasses() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        String name = DummyRunner.class.getName();
+        try {
+            // The agent package is excluded from the dump, but not when defined by another class loader
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-watch.jar", "--watch", "-f", name.replace(".", "\\."), "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+
+            byte[] bytecode = ClassDumperTest.class.getResourceAsStream("/" + Utils.toNativeClassName(name) + ".class").readAllBytes();
+            new ClassLoader("watched", null) {
+                {
+                    defineClass(name, bytecode, 0, bytecode.length);
+                }
+            };
+        } finally {
+            ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-watch-shutdown.jar", "--command", "shutdown", "1337"});
+            sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        }
+
+        try (JarFile jar = new JarFile("target/dump-watch-watch-00001.jar")) {
+            Assertions.assertTrue(jar.stream().anyMatch(entry -> entry.getName().startsWith("[bootloader]/[watched_") && entry.getName().endsWith("/io/github/benjaminsoelberg/jft/DummyRunner.class")));
+            Assertions.assertNotNull(jar.getEntry(Watcher.LOG_ENTRY_NAME));
+        }
+    }
+
+    @Test
+    void testSelfAttachCanDumpInSlices() throws Exception {
+        File manifestJar = createManifest(ClassDumper.class.getName());
+        // The budget runs out during the pause after the first batch of 100 classes
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-slice-1.jar", "-f", "java\\.lang\\..*", "--max-time-ms", "1", "--batch-pause-ms", "10", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+        ClassDumper.TEST_AGENT_CMD_LINE = Utils.encodeArgs(new String[]{"-d", "target/dump-slice-2.jar", "-f", "java\\.lang\\..*", "--resume", "target/dump-slice-1.jar", "1337"});
+        sun.instrument.InstrumentationImpl.loadAgent(manifestJar.getCanonicalPath());
+
+        try (JarFile first = new JarFile("target/dump-slice-1.jar"); JarFile second = new JarFile("target/dump-slice-2.jar")) {
+            Assertions.assertNotNull(first.getEntry(Checkpoint.ENTRY_NAME));
+            Assertions.assertNull(second.getEntry(Checkpoint.ENTRY_NAME));
+            HashManifest firstManifest = HashManifest.load(new File("target/dump-slice-1.jar"));
+            HashManifest secondManifest = HashManifest.load(new File("target/dump-slice-2.jar"));
+            Assertions.assertTrue(firstManifest.size() <= ClassDumper.DUMP_BATCH_SIZE);
+            Assertions.assertTrue(secondManifest.size() > 0);
+            // Every class is dumped by exactly one of the slices
+            Assertions.assertTrue(firstManifest.getHashes().keySet().stream().noneMatch(path -> secondManifest.get(path) != null));
+            String string = "[bootloader]/java/lang/String.class";
+            Assertions.assertTrue(firstManifest.get(string) != null || secondManifest.get(string) != null);
+        }
+    }
+
     /**
      * This will create a jar in the temp dir holding the manifest to allow for self attach without the agent itself
      * having to be placed in a jar file.
@@ -0,0 +1,100 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClassFileNormalizerTest {
+
+    /**
+     * @return an abstract class with two methods, a SourceFile attribute and optionally a non-standard attribute
+     */
+    private static byte[] createClassFile(boolean reordered, boolean custom) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeInt(55);
+        out.writeShort(11);
+        out.writeByte(1);
+        out.writeUTF("A");
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        for (String utf8 : new String[]{"a", "()V", "b", "SourceFile", "A.java", "Custom"}) {
+            out.writeByte(1);
+            out.writeUTF(utf8);
+        }
+        out.writeShort(0x0401); // Public abstract
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // Interfaces
+        out.writeShort(0); // Fields
+        out.writeShort(2);
+        for (int name : reordered ? new int[]{7, 5} : new int[]{5, 7}) {
+            out.writeShort(0x0401);
+            out.writeShort(name);
+            out.writeShort(6);
+            out.writeShort(0);
+        }
+        out.writeShort(custom ? 2 : 1);
+        if (custom && reordered) {
+            out.writeShort(10);
+            out.writeInt(3);
+            out.write(new byte[]{1, 2, 3});
+        }
+        out.writeShort(8);
+        out.writeInt(2);
+        out.writeShort(9);
+        if (custom && !reordered) {
+            out.writeShort(10);
+            out.writeInt(1);
+            out.write(new byte[]{4});
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testReorderedMembersAndAttributesHashTheSame() throws IOException {
+        byte[] digest = ClassFileNormalizer.digest(createClassFile(false, false));
+        Assertions.assertEquals(32, digest.length);
+        Assertions.assertArrayEquals(digest, ClassFileNormalizer.digest(createClassFile(true, false)));
+        // Non-standard attributes are dropped by the JVM, whatever their content
+        Assertions.assertArrayEquals(digest, ClassFileNormalizer.digest(createClassFile(false, true)));
+        Assertions.assertArrayEquals(digest, ClassFileNormalizer.digest(createClassFile(true, true)));
+    }
+
+    @Test
+    void testChangedClassHashesDifferently() throws IOException {
+        byte[] classFile = createClassFile(false, false);
+        byte[] changed = classFile.clone();
+        // The SourceFile attribute now points to "()V"
+        changed[changed.length - 1] = 6;
+        Assertions.assertFalse(Arrays.equals(ClassFileNormalizer.digest(classFile), ClassFileNormalizer.digest(changed)));
+    }
+
+    @Test
+    void testRealClassFile() throws IOException {
+        byte[] classFile = ClassFileNormalizerTest.class.getResourceAsStream("ClassFileNormalizerTest.class").readAllBytes();
+        Assertions.assertArrayEquals(ClassFileNormalizer.digest(classFile), ClassFileNormalizer.digest(classFile.clone()));
+    }
+
+    @Test
+    void testMalformedClassFileThrows() throws IOException {
+        byte[] classFile = createClassFile(false, false);
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> ClassFileNormalizer.digest(Arrays.copyOf(classFile, classFile.length - 1)));
+        Assertions.assertEquals("Truncated class file", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> ClassFileNormalizer.digest(Arrays.copyOf(classFile, classFile.length + 1)));
+        Assertions.assertEquals("Trailing bytes after the class file", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> ClassFileNormalizer.digest(Utils.fromUtf8String("Not a class file")));
+        Assertions.assertEquals("Not a class file", exception.getMessage());
+    }
+}
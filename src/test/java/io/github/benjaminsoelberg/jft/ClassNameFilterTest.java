@@ -0,0 +1,59 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class ClassNameFilterTest {
+
+    private static final List<String> CLASS_NAMES = List.of(
+            "", "java", "java.", "java.lang.String", "javax.swing.JFrame", "sun.misc.Unsafe", "jdk.internal.Foo",
+            "com.sun.proxy.$Proxy1", "com.example.Main", "com.example.Main$Inner", "com.example.MainTest", "Main",
+            "a.b.c.d.e.f.g.H", "has spaces in filter", "has spaces in filter.", "aa", "abab", "FOO.bar"
+    );
+
+    @Test
+    void testLiteralPatterns() {
+        Assertions.assertEquals("java.lang.String", ClassNameFilter.toLiteral("java\\.lang\\.String"));
+        Assertions.assertEquals("com.example.Main$Inner", ClassNameFilter.toLiteral("com\\.example\\.Main\\$Inner"));
+        Assertions.assertEquals("", ClassNameFilter.toLiteral(""));
+        Assertions.assertNull(ClassNameFilter.toLiteral("java.lang.String"));
+        Assertions.assertNull(ClassNameFilter.toLiteral("java\\..*"));
+        Assertions.assertNull(ClassNameFilter.toLiteral("has spaces in filter"));
+    }
+
+    @Test
+    void testMatchesLikeRegularExpressions() {
+        assertSameAsRegex("java\\..*", "sun\\..*", "jdk\\..*", "com\\.sun\\..*");
+        assertSameAsRegex("com\\.example\\.Main", "com\\.example\\.Main\\$Inner");
+        assertSameAsRegex("java.*", "com\\.example\\..*Test", "has spaces in filter");
+        assertSameAsRegex("(a)\\1", "(ab)\\1", "java\\..*");
+        assertSameAsRegex(".*");
+        assertSameAsRegex("");
+        assertSameAsRegex("a|b", "java\\.lang\\.String");
+    }
+
+    @Test
+    void testPatternFlagsAreKept() {
+        ClassNameFilter filter = new ClassNameFilter(List.of(Pattern.compile("foo\\..*", Pattern.CASE_INSENSITIVE)), false);
+        Assertions.assertTrue(filter.test("FOO.bar"));
+        Assertions.assertFalse(filter.test("bar.foo"));
+    }
+
+    private void assertSameAsRegex(String... regexes) {
+        List<Pattern> patterns = Stream.of(regexes).map(Pattern::compile).collect(Collectors.toList());
+        for (boolean inverted : new boolean[]{false, true}) {
+            ClassNameFilter filter = new ClassNameFilter(patterns, inverted);
+            ClassNameFilter nativeFilter = new ClassNameFilter(patterns, inverted, true);
+            for (String className : CLASS_NAMES) {
+                boolean expected = patterns.stream().anyMatch(pattern -> pattern.matcher(className).matches()) ^ inverted;
+                Assertions.assertEquals(expected, filter.test(className), () -> String.format("%s with %s", className, patterns));
+                Assertions.assertEquals(expected, nativeFilter.test(Utils.toNativeClassName(className)), () -> String.format("native %s with %s", className, patterns));
+            }
+        }
+    }
+}
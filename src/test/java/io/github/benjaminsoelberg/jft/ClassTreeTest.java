@@ -0,0 +1,80 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+class ClassTreeTest {
+
+    @Test
+    void testLoaderHierarchy() throws Exception {
+        ClassTree tree = new ClassTree();
+        // Loaded by the app class loader, under the platform class loader
+        tree.add(ClassTreeTest.class, ByteBuffer.allocate(1));
+        try (URLClassLoader loader = new URLClassLoader("isolated", new URL[]{new File("target/test-classes").toURI().toURL()}, ClassLoader.getPlatformClassLoader())) {
+            // Not found by the platform class loader, so defined by the isolated loader itself
+            tree.add(Class.forName(DummyRunner.class.getName(), false, loader), null);
+        }
+        tree.add(String.class, null);
+
+        ClassTree.Node root = tree.getRoot();
+        Assertions.assertNull(root.getLoader());
+        Assertions.assertEquals(Utils.toClassLoaderName(null), root.getName());
+        Assertions.assertEquals(Utils.toClassLoaderPath(null), root.getPath());
+        Assertions.assertEquals(List.of(String.class), new ArrayList<>(root.getClasses()));
+
+        ClassTree.Node platform = root.getChildren().get(0);
+        Assertions.assertEquals(ClassLoader.getPlatformClassLoader(), platform.getLoader());
+        Assertions.assertTrue(platform.getClasses().isEmpty());
+        Assertions.assertEquals(2, platform.getChildren().size());
+
+        ClassTree.Node app = platform.getChildren().get(0);
+        Assertions.assertEquals(Utils.toClassLoaderPath(ClassTreeTest.class.getClassLoader()), app.getPath());
+        Assertions.assertEquals(List.of(ClassTreeTest.class), new ArrayList<>(app.getClasses()));
+        Assertions.assertSame(app, tree.getNode(ClassTreeTest.class.getClassLoader()));
+        Assertions.assertSame(root, tree.getNode(null));
+
+        ClassTree.Node isolated = platform.getChildren().get(1);
+        Assertions.assertEquals(Utils.toClassLoaderName(isolated.getLoader()), isolated.getName());
+        Assertions.assertEquals(Utils.toClassLoaderPath(isolated.getLoader()), isolated.getPath());
+        Map<String, ByteBuffer> classes = new HashMap<>();
+        isolated.forEachClass((clazz, bytecode) -> classes.put(clazz.getName(), bytecode));
+        Assertions.assertTrue(classes.containsKey(DummyRunner.class.getName()));
+        Assertions.assertNull(classes.get(DummyRunner.class.getName()));
+    }
+
+    @Test
+    void testConcurrentAddsAreSortedAndUnique() throws Exception {
+        List<Class<?>> all = List.of(String.class, Integer.class, Long.class, Thread.class, Object.class, Math.class, System.class, Runtime.class);
+        ClassTree tree = new ClassTree();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                ByteBuffer bytecode = ByteBuffer.wrap(new byte[]{(byte) i});
+                futures.add(executor.submit(() -> all.forEach(clazz -> tree.add(clazz, bytecode))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<String> names = tree.getRoot().getClasses().stream().map(Class::getName).collect(Collectors.toList());
+        Assertions.assertEquals(all.stream().map(Class::getName).sorted().collect(Collectors.toList()), names);
+        Assertions.assertTrue(tree.getRoot().getChildren().isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+class ConsoleWriterTest {
+
+    @Test
+    void testLinesArePrintedInOrder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ConsoleWriter console = new ConsoleWriter(new PrintStream(out, true), 128)) {
+            for (int i = 0; i < 100; i++) {
+                console.println(i);
+            }
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append(i).append(System.lineSeparator());
+        }
+        Assertions.assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    void testOldestLinesAreDroppedWhenFull() throws InterruptedException {
+        CountDownLatch printing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Blocks the console thread on its first line until all other lines have been queued
+        OutputStream slow = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                printing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                out.write(b, off, len);
+            }
+        };
+
+        try (ConsoleWriter console = new ConsoleWriter(new PrintStream(slow, true), 4)) {
+            console.println("first");
+            printing.await();
+            for (int i = 0; i < 7; i++) {
+                console.println("line" + i);
+            }
+            release.countDown();
+        }
+        String[] lines = out.toString().split(System.lineSeparator());
+        Assertions.assertArrayEquals(new String[]{"first", "... 3 lines dropped as the console could not keep up", "line3", "line4", "line5", "line6"}, lines);
+    }
+
+    @Test
+    void testLinesAreIgnoredWhenClosed() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConsoleWriter console = new ConsoleWriter(new PrintStream(out, true), 4);
+        console.close();
+        console.println("late");
+        Assertions.assertEquals("", out.toString());
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DedupStoreTest {
+
+    private static final String FIRST = "[bootloader]/[platform]/[app]/[a_Loader@1]/lib/Foo.class";
+    private static final String SECOND = "[bootloader]/[platform]/[app]/[b_Loader@2]/lib/Foo.class";
+    private static final String OTHER = "[bootloader]/[platform]/[app]/[b_Loader@2]/lib/Bar.class";
+
+    @Test
+    void testDuplicatesShareTheCanonicalBytecode() {
+        DedupStore store = new DedupStore(true);
+        byte[] first = Utils.fromUtf8String("Foo");
+        byte[] second = Utils.fromUtf8String("Foo");
+        byte[] other = Utils.fromUtf8String("Bar");
+
+        Assertions.assertSame(first, store.add(FIRST, Utils.sha256(first), first));
+        Assertions.assertSame(first, store.add(SECOND, Utils.sha256(second), second));
+        Assertions.assertSame(other, store.add(OTHER, Utils.sha256(other), other));
+
+        Assertions.assertFalse(store.isDuplicate(FIRST));
+        Assertions.assertTrue(store.isDuplicate(SECOND));
+        Assertions.assertFalse(store.isDuplicate(OTHER));
+        Assertions.assertEquals(1, store.getDuplicates());
+        Assertions.assertEquals(3, store.getSavedBytes());
+        Assertions.assertEquals(SECOND + "\t" + FIRST + "\n", Utils.toUtf8String(store.toBytes()));
+    }
+
+    @Test
+    void testBytecodeIsNotKeptWhenStreaming() {
+        DedupStore store = new DedupStore(false);
+        byte[] first = Utils.fromUtf8String("Foo");
+        byte[] second = Utils.fromUtf8String("Foo");
+
+        Assertions.assertSame(first, store.add(FIRST, Utils.sha256(first), first));
+        Assertions.assertSame(second, store.add(SECOND, Utils.sha256(second), second));
+        Assertions.assertTrue(store.isDuplicate(SECOND));
+    }
+
+    @Test
+    void testSamePathIsNotADuplicate() {
+        DedupStore store = new DedupStore(true);
+        byte[] bytecode = Utils.fromUtf8String("Foo");
+        store.add(FIRST, Utils.sha256(bytecode), bytecode);
+        store.add(FIRST, Utils.sha256(bytecode), bytecode);
+        Assertions.assertFalse(store.isDuplicate(FIRST));
+        Assertions.assertEquals(0, store.getDuplicates());
+    }
+}
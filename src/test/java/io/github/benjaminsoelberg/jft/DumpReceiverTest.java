@@ -0,0 +1,87 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DumpReceiverTest {
+
+    private static final byte[] DUMP = createJar();
+
+    private static byte[] createJar() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("report.txt"));
+            out.write(Utils.fromUtf8String("Done!"));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testDumpIsReceived() throws Exception {
+        File file = File.createTempFile("received", ".jar");
+        file.deleteOnExit();
+        try (DumpReceiver receiver = new DumpReceiver(file)) {
+            send(receiver.getPort(), receiver.getToken(), DUMP);
+            Assertions.assertEquals(DUMP.length, receiver.await());
+        }
+        Assertions.assertArrayEquals(DUMP, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void testConnectionsWithoutTheTokenAreIgnored() throws Exception {
+        File file = File.createTempFile("received", ".jar");
+        file.deleteOnExit();
+        try (DumpReceiver receiver = new DumpReceiver(file)) {
+            send(receiver.getPort(), "00000000000000000000000000000000", Utils.fromUtf8String("Injected"));
+            send(receiver.getPort(), receiver.getToken(), DUMP);
+            Assertions.assertEquals(DUMP.length, receiver.await());
+        }
+        Assertions.assertArrayEquals(DUMP, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void testCutOffDumpFails() throws IOException {
+        File file = File.createTempFile("received", ".jar");
+        file.deleteOnExit();
+        try (DumpReceiver receiver = new DumpReceiver(file)) {
+            // Like an agent crashing before the central directory was written
+            send(receiver.getPort(), receiver.getToken(), Arrays.copyOf(DUMP, DUMP.length - 30));
+            Exception exception = assertThrows(IOException.class, receiver::await);
+            Assertions.assertEquals(String.format("The dump was cut off after %d bytes, the partial jar is kept in %s", DUMP.length - 30, file), exception.getMessage());
+        }
+        Assertions.assertEquals(DUMP.length - 30, file.length());
+    }
+
+    @Test
+    void testAgentThatNeverConnectsFails() throws IOException {
+        File file = File.createTempFile("received", ".jar");
+        file.deleteOnExit();
+        try (DumpReceiver receiver = new DumpReceiver(file)) {
+            Exception exception = assertThrows(IOException.class, receiver::await);
+            Assertions.assertEquals("The agent never connected", exception.getMessage());
+        }
+    }
+
+    private void send(int port, String token, byte[] data) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port); OutputStream out = socket.getOutputStream()) {
+            out.write(Utils.fromUtf8String(token + "\n"));
+            out.write(data);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+class FailureIsolatorTest {
+
+    private static final Class<?>[] CLASSES = new Class<?>[]{
+            String.class, Integer.class, Long.class, Short.class, Byte.class, Character.class, Boolean.class, Float.class,
+            Double.class, Object.class, Number.class, Math.class, System.class, Thread.class, Runtime.class, Void.class
+    };
+
+    private final List<Class<?>> retransformed = new ArrayList<>();
+
+    @Test
+    void testSuccessfulBatchIsRetransformedOnce() throws Exception {
+        FailureIsolator isolator = new FailureIsolator(createInstrumentation(Set.of()));
+        Assertions.assertTrue(isolator.retransform(CLASSES));
+        Assertions.assertEquals(1, isolator.getRetransformations());
+        Assertions.assertTrue(isolator.getQuarantined().isEmpty());
+        Assertions.assertEquals(Arrays.asList(CLASSES), retransformed);
+    }
+
+    @Test
+    void testFailingClassesAreIsolated() throws Exception {
+        FailureIsolator isolator = new FailureIsolator(createInstrumentation(Set.of(Long.class, Thread.class)));
+        Assertions.assertFalse(isolator.retransform(CLASSES));
+        Assertions.assertEquals(List.of(Long.class, Thread.class), new ArrayList<>(isolator.getQuarantined().keySet()));
+        Assertions.assertTrue(isolator.getQuarantined().get(Long.class) instanceof ClassFormatError);
+        // Two failing classes out of 16 must be found in at most 1 + 2 * 2 * log2(16) calls
+        Assertions.assertTrue(isolator.getRetransformations() <= 17, "Too many retransformations: " + isolator.getRetransformations());
+
+        // All other classes must have been retransformed
+        List<Class<?>> expected = new ArrayList<>(Arrays.asList(CLASSES));
+        expected.removeAll(List.of(Long.class, Thread.class));
+        Assertions.assertEquals(expected, retransformed);
+    }
+
+    /**
+     * Creates an instrumentation where batches with any of the failing classes throws a {@link ClassFormatError}.
+     */
+    private Instrumentation createInstrumentation(Set<Class<?>> failing) {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("retransformClasses")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            Class<?>[] batch = (Class<?>[]) args[0];
+            if (Arrays.stream(batch).anyMatch(failing::contains)) {
+                throw new ClassFormatError("Failing batch");
+            }
+            retransformed.addAll(Arrays.asList(batch));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+
+class HashManifestTest {
+
+    private static final String PATH = "[bootloader]/java/lang/String.class";
+    private static final byte[] BYTECODE = Utils.fromUtf8String("Not really bytecode");
+
+    @Test
+    void testManifestUsesSha256SumFormat() {
+        HashManifest manifest = new HashManifest();
+        byte[] hash = manifest.add(PATH, BYTECODE);
+        Assertions.assertArrayEquals(hash, manifest.get(PATH));
+        Assertions.assertEquals(32, hash.length);
+        Assertions.assertEquals(Utils.toHex(hash).toLowerCase() + "  " + PATH + "\n", Utils.toUtf8String(manifest.toBytes()));
+    }
+
+    @Test
+    void testLoadManifestFile() throws IOException {
+        HashManifest manifest = new HashManifest();
+        manifest.add(PATH, BYTECODE);
+        File file = File.createTempFile("classes", ".sha256");
+        file.deleteOnExit();
+        Files.write(file.toPath(), manifest.toBytes());
+
+        Assertions.assertArrayEquals(manifest.get(PATH), HashManifest.load(file).get(PATH));
+    }
+
+    @Test
+    void testLoadJarWithManifest() throws IOException {
+        HashManifest manifest = new HashManifest();
+        manifest.add(PATH, BYTECODE);
+        File file = File.createTempFile("dump", ".jar");
+        file.deleteOnExit();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), 1, Deflater.DEFAULT_COMPRESSION)) {
+            // The manifest must be used even if the class is absent, as is the case for delta dumps
+            jar.write(HashManifest.ENTRY_NAME, manifest.toBytes());
+        }
+
+        Assertions.assertArrayEquals(manifest.get(PATH), HashManifest.load(file).get(PATH));
+    }
+
+    @Test
+    void testLoadJarWithoutManifest() throws IOException {
+        File file = File.createTempFile("dump", ".jar");
+        file.deleteOnExit();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), 1, Deflater.DEFAULT_COMPRESSION)) {
+            jar.write(PATH, BYTECODE);
+            jar.write("report.txt", BYTECODE);
+        }
+
+        HashManifest manifest = HashManifest.load(file);
+        Assertions.assertEquals(1, manifest.size());
+        Assertions.assertArrayEquals(Utils.sha256(BYTECODE), manifest.get(PATH));
+    }
+
+    @Test
+    void testInvalidManifestThrowsIOException() throws IOException {
+        File file = File.createTempFile("classes", ".sha256");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Utils.fromUtf8String("not a manifest"));
+
+        Assertions.assertThrows(IOException.class, () -> HashManifest.load(file));
+    }
+}
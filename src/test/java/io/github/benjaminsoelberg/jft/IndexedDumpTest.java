@@ -0,0 +1,178 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IndexedDumpTest {
+
+    private static byte[] bytecode(String className, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (className.hashCode() + i);
+        }
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static File createTempFile(String prefix, String suffix) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static File write() throws IOException {
+        File file = createTempFile("dump", IndexedDump.EXTENSION);
+        try (IndexedDumpWriter writer = new IndexedDumpWriter(file)) {
+            // Added out of order, the index is sorted when written
+            writer.add("com.acme.Zeta", "[bootloader]/[platform]/[app]/", bytecode("com.acme.Zeta", 10));
+            writer.add("com.acme.Alpha", "[bootloader]/[platform]/[app]/[plugin_b]/", bytecode("com.acme.Alpha-b", 20));
+            writer.add("com.acme.Alpha", "[bootloader]/[platform]/[app]/[plugin_a]/", bytecode("com.acme.Alpha-a", 30));
+            writer.add("com.acme.Ærø", "[bootloader]/[platform]/[app]/", bytecode("com.acme.Ærø", 40));
+            writer.add("java.lang.String", "[bootloader]/", bytecode("java.lang.String", 50));
+        }
+        return file;
+    }
+
+    @Test
+    void testLookup() throws IOException {
+        try (IndexedDump dump = IndexedDump.open(write())) {
+            Assertions.assertEquals(5, dump.size());
+            Assertions.assertEquals("com.acme.Alpha", dump.getClassName(0));
+            Assertions.assertEquals("[bootloader]/[platform]/[app]/[plugin_a]/", dump.getLoader(0));
+            Assertions.assertEquals("com.acme.Ærø", dump.getClassName(3));
+
+            Assertions.assertEquals(List.of("[bootloader]/[platform]/[app]/[plugin_a]/", "[bootloader]/[platform]/[app]/[plugin_b]/"), dump.getLoaders("com.acme.Alpha"));
+            Assertions.assertEquals(List.of("[bootloader]/"), dump.getLoaders("java.lang.String"));
+            Assertions.assertEquals(List.of(), dump.getLoaders("com.acme.Beta"));
+            Assertions.assertEquals(List.of(), dump.getLoaders("com.acme"));
+
+            Assertions.assertArrayEquals(bytecode("com.acme.Alpha-b", 20), toBytes(dump.getBytecode("com.acme.Alpha", "[bootloader]/[platform]/[app]/[plugin_b]/")));
+            Assertions.assertArrayEquals(bytecode("com.acme.Ærø", 40), toBytes(dump.getBytecode("com.acme.Ærø", "[bootloader]/[platform]/[app]/")));
+            Assertions.assertNull(dump.getBytecode("com.acme.Alpha", "[bootloader]/"));
+
+            Assertions.assertEquals(2, dump.find("com.acme.Zeta"));
+            Assertions.assertEquals(-3, dump.find("com.acme.Beta"));
+            Assertions.assertEquals(-6, dump.find("zzz"));
+        }
+    }
+
+    @Test
+    void testBytecodeIsReadOnlySlice() throws IOException {
+        try (IndexedDump dump = IndexedDump.open(write())) {
+            ByteBuffer bytecode = dump.getBytecode(dump.find("java.lang.String"));
+            Assertions.assertTrue(bytecode.isReadOnly());
+            Assertions.assertTrue(bytecode.isDirect());
+            Assertions.assertEquals(0, bytecode.position());
+            Assertions.assertEquals(50, bytecode.remaining());
+        }
+    }
+
+    @Test
+    void testSmallChunks() throws IOException {
+        File file = write();
+        // Chunks of 16 bytes overlapping by 8, so classes cross chunks and some are larger than the overlap
+        try (IndexedDump chunked = IndexedDump.open(file, 16, 8); IndexedDump whole = IndexedDump.open(file)) {
+            for (int i = 0; i < whole.size(); i++) {
+                Assertions.assertArrayEquals(toBytes(whole.getBytecode(i)), toBytes(chunked.getBytecode(i)));
+            }
+        }
+    }
+
+    @Test
+    void testEmptyDump() throws IOException {
+        File file = createTempFile("empty", IndexedDump.EXTENSION);
+        new IndexedDumpWriter(file).close();
+        try (IndexedDump dump = IndexedDump.open(file)) {
+            Assertions.assertEquals(0, dump.size());
+            Assertions.assertEquals(-1, dump.find("java.lang.String"));
+            Assertions.assertEquals(List.of(), dump.getLoaders("java.lang.String"));
+        }
+    }
+
+    @Test
+    void testDuplicateThrowsZipException() throws IOException {
+        File file = createTempFile("duplicate", IndexedDump.EXTENSION);
+        try (IndexedDumpWriter writer = new IndexedDumpWriter(file)) {
+            writer.add("java.lang.String", "[bootloader]/", new byte[1]);
+            assertThrows(ZipException.class, () -> writer.add("java.lang.String", "[bootloader]/", new byte[1]));
+        }
+    }
+
+    @Test
+    void testInvalidFileThrowsZipException() throws IOException {
+        File file = createTempFile("invalid", IndexedDump.EXTENSION);
+        Files.write(file.toPath(), Utils.fromUtf8String("PK not an indexed dump, but long enough"));
+        assertThrows(ZipException.class, () -> IndexedDump.open(file));
+
+        File truncated = write();
+        try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(ZipException.class, () -> IndexedDump.open(truncated));
+    }
+
+    @Test
+    void testJarRoundTrip() throws IOException {
+        File jar = createTempFile("dump", ".jar");
+        try (IndexedDump dump = IndexedDump.open(write())) {
+            dump.toJar(jar, 1, Deflater.DEFAULT_COMPRESSION);
+        }
+        try (ZipFile zip = new ZipFile(jar)) {
+            Assertions.assertEquals(5, zip.size());
+            Assertions.assertNotNull(zip.getEntry("[bootloader]/[platform]/[app]/[plugin_a]/com/acme/Alpha.class"));
+        }
+
+        File converted = createTempFile("converted", IndexedDump.EXTENSION);
+        Assertions.assertEquals(5, IndexedDump.fromJar(jar, converted));
+        try (IndexedDump dump = IndexedDump.open(converted)) {
+            Assertions.assertEquals(5, dump.size());
+            Assertions.assertArrayEquals(bytecode("com.acme.Alpha-a", 30), toBytes(dump.getBytecode("com.acme.Alpha", "[bootloader]/[platform]/[app]/[plugin_a]/")));
+            Assertions.assertArrayEquals(bytecode("java.lang.String", 50), toBytes(dump.getBytecode("java.lang.String", "[bootloader]/")));
+        }
+    }
+
+    @Test
+    void testFromJarSkipsOtherEntries() throws IOException {
+        File jar = createTempFile("dump", ".jar");
+        try (JarWriter writer = new JarWriter(new FileOutputStream(jar), 1, Deflater.DEFAULT_COMPRESSION)) {
+            writer.write("[bootloader]/java/lang/String.class", new byte[1]);
+            writer.write(HashManifest.ENTRY_NAME, new byte[1]);
+            writer.write("report.txt", new byte[1]);
+        }
+        File converted = createTempFile("converted", IndexedDump.EXTENSION);
+        Assertions.assertEquals(1, IndexedDump.fromJar(jar, converted));
+    }
+
+    @Test
+    void testIndexToolExtract() throws IOException {
+        File file = write();
+        File destination = createTempFile("Zeta", ".class");
+        Assertions.assertEquals(0, IndexTool.run(new String[]{"extract", file.getPath(), "com.acme.Zeta", destination.getPath()}));
+        Assertions.assertArrayEquals(bytecode("com.acme.Zeta", 10), Files.readAllBytes(destination.toPath()));
+
+        // Loaded by two class loaders, so one must be given
+        Assertions.assertEquals(1, IndexTool.run(new String[]{"extract", file.getPath(), "com.acme.Alpha", destination.getPath()}));
+        Assertions.assertEquals(0, IndexTool.run(new String[]{"extract", file.getPath(), "com.acme.Alpha", "[bootloader]/[platform]/[app]/[plugin_b]/", destination.getPath()}));
+        Assertions.assertArrayEquals(bytecode("com.acme.Alpha-b", 20), Files.readAllBytes(destination.toPath()));
+
+        Assertions.assertEquals(1, IndexTool.run(new String[]{"unknown", file.getPath(), "x"}));
+    }
+}
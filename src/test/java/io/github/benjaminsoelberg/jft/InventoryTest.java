@@ -0,0 +1,102 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+class InventoryTest {
+
+    @Test
+    void testInventory() throws Exception {
+        ClassTree tree = new ClassTree();
+        for (Class<?> clazz : List.of(String.class, Thread.class, Integer.class, List.class, InventoryTest.class, ClassTreeTest.class)) {
+            tree.add(clazz, null);
+        }
+        URL[] classpath = {new File("target/test-classes").toURI().toURL()};
+        try (URLClassLoader first = new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader());
+             URLClassLoader second = new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader())) {
+            // The same class in two loaders of the same class, like a webapp redeployed without being unloaded
+            tree.add(Class.forName(DummyRunner.class.getName(), false, first), null);
+            tree.add(Class.forName(DummyRunner.class.getName(), false, second), null);
+        }
+
+        Inventory inventory = new Inventory(tree);
+        Assertions.assertEquals(5, inventory.getLoaders());
+        Assertions.assertEquals(8, inventory.getClasses());
+        Assertions.assertEquals(5, inventory.getPackages());
+
+        String lines = Utils.toUtf8String(inventory.toBytes());
+        Assertions.assertTrue(lines.startsWith("loader\t[bootloader]/\t4\t2\n" +
+                                               "package\t[bootloader]/\tjava.lang\t3\n" +
+                                               "package\t[bootloader]/\tjava.util\t1\n" +
+                                               "loader\t[bootloader]/[platform]/\t0\t0\n"), lines);
+        Assertions.assertTrue(lines.contains("loader\t[bootloader]/[platform]/[app]/\t2\t1\n" +
+                                             "package\t[bootloader]/[platform]/[app]/\tio.github.benjaminsoelberg.jft\t2\n"), lines);
+        Assertions.assertTrue(lines.contains("loader-class\tjava.net.URLClassLoader\t2\t2\n"), lines);
+    }
+
+    /**
+     * @return an empty class with the given name
+     */
+    private static byte[] createClassFile(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeInt(55);
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(Utils.toNativeClassName(name));
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        out.writeShort(0x0001); // Public
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // Interfaces
+        out.writeShort(0); // Fields
+        out.writeShort(0); // Methods
+        out.writeShort(0); // Attributes
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testPackagesInterleavedByName() throws Exception {
+        ClassTree tree = new ClassTree();
+        new ClassLoader("packages", null) {
+            {
+                // Sorted by name, a.b.c.D is between the two classes of a.b
+                for (String name : List.of("a.b.C", "a.b.c.D", "a.b.d")) {
+                    byte[] bytecode = createClassFile(name);
+                    tree.add(defineClass(name, bytecode, 0, bytecode.length), null);
+                }
+            }
+        };
+
+        Inventory inventory = new Inventory(tree);
+        Assertions.assertEquals(3, inventory.getClasses());
+        Assertions.assertEquals(2, inventory.getPackages());
+        String lines = Utils.toUtf8String(inventory.toBytes());
+        String path = tree.getRoot().getChildren().get(0).getPath();
+        Assertions.assertTrue(lines.contains("loader\t" + path + "\t3\t2\n" +
+                                             "package\t" + path + "\ta.b\t2\n" +
+                                             "package\t" + path + "\ta.b.c\t1\n"), lines);
+    }
+
+    @Test
+    void testEmptyTree() {
+        Inventory inventory = new Inventory(new ClassTree());
+        Assertions.assertEquals(1, inventory.getLoaders());
+        Assertions.assertEquals(0, inventory.getClasses());
+        Assertions.assertEquals("loader\t[bootloader]/\t0\t0\n", Utils.toUtf8String(inventory.toBytes()));
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JarWriterTest {
+
+    @Test
+    void testSingleThreadedDeflatedJar() throws IOException {
+        assertRoundTrip(1, Deflater.DEFAULT_COMPRESSION, ZipEntry.DEFLATED);
+    }
+
+    @Test
+    void testMultiThreadedDeflatedJar() throws IOException {
+        assertRoundTrip(4, Deflater.BEST_COMPRESSION, ZipEntry.DEFLATED);
+    }
+
+    @Test
+    void testStoredJar() throws IOException {
+        assertRoundTrip(4, JarWriter.STORED, ZipEntry.STORED);
+    }
+
+    @Test
+    void testZip64EntryCount() throws IOException {
+        File file = File.createTempFile("jar-writer-zip64", ".jar");
+        file.deleteOnExit();
+        int count = 70_000;
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), 2, JarWriter.STORED)) {
+            for (int i = 0; i < count; i++) {
+                jar.write("entry" + i, new byte[]{(byte) i});
+            }
+        }
+        try (ZipFile zip = new ZipFile(file)) {
+            Assertions.assertEquals(count, zip.size());
+            Assertions.assertEquals((byte) (count - 1), zip.getInputStream(zip.getEntry("entry" + (count - 1))).readAllBytes()[0]);
+        }
+    }
+
+    @Test
+    void testStreamedEntries() throws IOException {
+        assertStreamed(4, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void testStreamedEntriesWithoutCompression() throws IOException {
+        assertStreamed(1, JarWriter.STORED);
+    }
+
+    @Test
+    void testBufferEntries() throws IOException {
+        assertBuffers(4, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void testBufferEntriesWithoutCompression() throws IOException {
+        assertBuffers(1, JarWriter.STORED);
+    }
+
+    @Test
+    void testDuplicateEntryThrowsZipException() throws IOException {
+        try (JarWriter jar = new JarWriter(new ByteArrayOutputStream(), 1, Deflater.DEFAULT_COMPRESSION)) {
+            jar.write("a", new byte[0]);
+            Exception exception = assertThrows(ZipException.class, () -> jar.write("a", new byte[0]));
+            Assertions.assertEquals("duplicate entry: a", exception.getMessage());
+            exception = assertThrows(ZipException.class, () -> jar.write("a", out -> out.write(1)));
+            Assertions.assertEquals("duplicate entry: a", exception.getMessage());
+        }
+    }
+
+    private void assertStreamed(int threads, int level) throws IOException {
+        File file = File.createTempFile("jar-writer-streamed", ".jar");
+        file.deleteOnExit();
+        byte[] large = new byte[1024 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), threads, level)) {
+            jar.write("before", toData(1));
+            jar.write("streamed", out -> {
+                for (int i = 0; i < large.length; i += 1000) {
+                    out.write(large, i, Math.min(1000, large.length - i));
+                }
+                // Closing the entry must not close the jar
+                out.close();
+            });
+            jar.write("empty", out -> {
+            });
+            jar.write("after", toData(2));
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            List<String> actual = new ArrayList<>();
+            Collections.list(zip.entries()).forEach(entry -> actual.add(entry.getName()));
+            Assertions.assertEquals(List.of("before", "streamed", "empty", "after"), actual);
+            Assertions.assertArrayEquals(large, zip.getInputStream(zip.getEntry("streamed")).readAllBytes());
+            Assertions.assertEquals(large.length, zip.getEntry("streamed").getSize());
+            Assertions.assertEquals(0, zip.getInputStream(zip.getEntry("empty")).readAllBytes().length);
+            Assertions.assertArrayEquals(toData(2), zip.getInputStream(zip.getEntry("after")).readAllBytes());
+        }
+        // Reading the local headers and data descriptors sequentially must give the same result
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
+            Assertions.assertEquals("before", zip.getNextEntry().getName());
+            Assertions.assertEquals("streamed", zip.getNextEntry().getName());
+            Assertions.assertArrayEquals(large, zip.readAllBytes());
+            Assertions.assertEquals("empty", zip.getNextEntry().getName());
+            Assertions.assertEquals("after", zip.getNextEntry().getName());
+            Assertions.assertArrayEquals(toData(2), zip.readAllBytes());
+        }
+    }
+
+    private void assertBuffers(int threads, int level) throws IOException {
+        File file = File.createTempFile("jar-writer-buffers", ".jar");
+        file.deleteOnExit();
+        ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+        for (int i = 0; direct.hasRemaining(); i++) {
+            direct.put((byte) (i % 251));
+        }
+        direct.position(1000).limit(50_000);
+        ByteBuffer readOnly = ByteBuffer.wrap(toData(3)).asReadOnlyBuffer();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), threads, level)) {
+            jar.write("direct", direct);
+            jar.write("read-only", readOnly);
+        }
+        // The buffers are read without being consumed
+        Assertions.assertEquals(1000, direct.position());
+        Assertions.assertEquals(toData(3).length, readOnly.remaining());
+
+        byte[] expected = new byte[49_000];
+        direct.duplicate().get(expected);
+        try (ZipFile zip = new ZipFile(file)) {
+            Assertions.assertArrayEquals(expected, zip.getInputStream(zip.getEntry("direct")).readAllBytes());
+            Assertions.assertArrayEquals(toData(3), zip.getInputStream(zip.getEntry("read-only")).readAllBytes());
+        }
+    }
+
+    private void assertRoundTrip(int threads, int level, int method) throws IOException {
+        File file = File.createTempFile("jar-writer", ".jar");
+        file.deleteOnExit();
+        List<String> names = new ArrayList<>();
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), threads, level)) {
+            for (int i = 0; i < 500; i++) {
+                String name = "[bootloader]/pkg/Clæss" + i + ".class";
+                names.add(name);
+                jar.write(name, toData(i));
+            }
+            names.add("empty.txt");
+            jar.write("empty.txt", new byte[0]);
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            List<String> actual = new ArrayList<>();
+            Collections.list(zip.entries()).forEach(entry -> actual.add(entry.getName()));
+            // Entries must be written in the order they were added regardless of the number of threads
+            Assertions.assertEquals(names, actual);
+            for (int i = 0; i < 500; i++) {
+                ZipEntry entry = zip.getEntry(names.get(i));
+                Assertions.assertEquals(method, entry.getMethod());
+                Assertions.assertArrayEquals(toData(i), zip.getInputStream(entry).readAllBytes());
+            }
+            Assertions.assertEquals(0, zip.getInputStream(zip.getEntry("empty.txt")).readAllBytes().length);
+        }
+    }
+
+    private byte[] toData(int i) {
+        return Utils.fromUtf8String(String.valueOf(i).repeat(i));
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+class LoaderSelectorTest {
+    private static final ClassLoader PLATFORM = ClassLoader.getPlatformClassLoader();
+    private static final ClassLoader APP = ClassLoader.getSystemClassLoader();
+
+    private static Instrumentation createInstrumentation(Class<?>... loaded) {
+        return (Instrumentation) Proxy.newProxyInstance(LoaderSelectorTest.class.getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getAllLoadedClasses")) {
+                return loaded;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @Test
+    void testSelectByName() {
+        LoaderSelector selector = new LoaderSelector(Pattern.compile("bootloader|app"), null, null);
+        Assertions.assertEquals(Arrays.asList(null, APP), selector.select(Arrays.asList(null, PLATFORM, APP)));
+    }
+
+    @Test
+    void testSelectByClass() {
+        LoaderSelector selector = new LoaderSelector(null, Pattern.compile(".*\\$PlatformClassLoader"), null);
+        Assertions.assertEquals(List.of(PLATFORM), selector.select(Arrays.asList(null, PLATFORM, APP)));
+    }
+
+    @Test
+    void testSelectByParent() throws Exception {
+        try (URLClassLoader child = new URLClassLoader("child", new URL[0], APP)) {
+            LoaderSelector selector = new LoaderSelector(null, null, Pattern.compile("platform"));
+            Assertions.assertEquals(List.of(APP, child), selector.select(Arrays.asList(null, PLATFORM, APP, child)));
+            selector = new LoaderSelector(null, null, Pattern.compile("bootloader"));
+            Assertions.assertEquals(List.of(PLATFORM, APP, child), selector.select(Arrays.asList(null, PLATFORM, APP, child)));
+        }
+    }
+
+    @Test
+    void testThreadsLeadToTheAppClassLoader() {
+        // Only the classes of loaders no thread leads to are listed
+        Instrumentation instrumentation = createInstrumentation();
+        Assertions.assertEquals(List.of(APP), new LoaderSelector(Pattern.compile("app"), null, null).select(instrumentation));
+    }
+
+    @Test
+    void testLoadersWithoutThreadsAreFoundThroughTheirClasses() throws Exception {
+        try (URLClassLoader idle = new URLClassLoader("idle", new URL[]{new java.io.File("target/test-classes").toURI().toURL()}, PLATFORM)) {
+            Class<?> clazz = Class.forName(DummyRunner.class.getName(), false, idle);
+            LoaderSelector selector = new LoaderSelector(Pattern.compile("idle_.*"), null, null);
+            Assertions.assertEquals(List.of(idle), selector.select(createInstrumentation(String.class, clazz)));
+            Assertions.assertEquals(List.of(), selector.select(createInstrumentation(String.class)));
+        }
+    }
+
+    @Test
+    void testIdleLoadersAreSelectedWithBusyOnes() throws Exception {
+        URL[] urls = {new java.io.File("target/test-classes").toURI().toURL()};
+        try (URLClassLoader busy = new URLClassLoader("webapp", urls, PLATFORM); URLClassLoader idle = new URLClassLoader("webapp", urls, PLATFORM)) {
+            Class<?> busyClass = Class.forName(DummyRunner.class.getName(), false, busy);
+            Class<?> idleClass = Class.forName(DummyRunner.class.getName(), false, idle);
+            LoaderSelector selector = new LoaderSelector(Pattern.compile("webapp_.*"), null, null);
+            Thread thread = Thread.currentThread();
+            ClassLoader context = thread.getContextClassLoader();
+            thread.setContextClassLoader(busy);
+            try {
+                List<ClassLoader> selected = selector.select(createInstrumentation(String.class, busyClass, idleClass));
+                Assertions.assertEquals(2, selected.size());
+                Assertions.assertTrue(selected.contains(busy));
+                Assertions.assertTrue(selected.contains(idle));
+            } finally {
+                thread.setContextClassLoader(context);
+            }
+        }
+    }
+}
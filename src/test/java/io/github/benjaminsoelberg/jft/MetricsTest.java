@@ -0,0 +1,63 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class MetricsTest {
+
+    private static final long ONE_US = TimeUnit.MICROSECONDS.toNanos(1);
+
+    @Test
+    void testBuckets() {
+        Assertions.assertEquals(0, Metrics.bucket(0));
+        Assertions.assertEquals(0, Metrics.bucket(ONE_US));
+        Assertions.assertEquals(1, Metrics.bucket(2 * ONE_US));
+        Assertions.assertEquals(2, Metrics.bucket(3 * ONE_US));
+        Assertions.assertEquals(10, Metrics.bucket(1024 * ONE_US));
+        Assertions.assertEquals(11, Metrics.bucket(1025 * ONE_US));
+        Assertions.assertEquals(31, Metrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testStagesAddUp() throws InterruptedException {
+        Metrics metrics = new Metrics(false);
+        metrics.startStage("first");
+        Thread.sleep(5);
+        metrics.startStage("second");
+        metrics.startStage("first");
+        Thread.sleep(5);
+        metrics.startStage(null);
+        Assertions.assertTrue(metrics.getStageNanos("first") >= TimeUnit.MILLISECONDS.toNanos(10));
+        Assertions.assertTrue(metrics.getStageNanos("second") < metrics.getStageNanos("first"));
+        Assertions.assertEquals(0, metrics.getStageNanos("missing"));
+    }
+
+    @Test
+    void testJson() {
+        Metrics metrics = new Metrics(true);
+        metrics.setClasses(10, 3);
+        metrics.startStage("retransform");
+        metrics.recordBatch(2, 1000 * ONE_US);
+        metrics.recordBatch(1, 3000 * ONE_US);
+        metrics.recordCapture(100);
+        metrics.recordCapture(50);
+        metrics.startStage(null);
+
+        Assertions.assertEquals(2, metrics.getBatches());
+        Assertions.assertEquals(1, metrics.getHistogram()[10]);
+        Assertions.assertEquals(1, metrics.getHistogram()[12]);
+        String json = metrics.toJson();
+        Assertions.assertTrue(json.contains("\"retransform\": {\"wallMillis\": "));
+        Assertions.assertTrue(json.contains("\"loaded\": 10, \"accepted\": 3, \"captured\": 2"));
+        Assertions.assertTrue(json.contains("\"capturedBytes\": 150"));
+        Assertions.assertTrue(json.contains("\"count\": 2, \"totalMillis\": 4.000, \"meanMillis\": 2.000, \"maxMillis\": 3.000"));
+        Assertions.assertTrue(json.contains("{\"upToMicros\": 1024, \"count\": 1},\n    {\"upToMicros\": 4096, \"count\": 1}\n  ]}"));
+    }
+
+    @Test
+    void testJsonWithoutBatches() {
+        Assertions.assertTrue(new Metrics(false).toJson().contains("\"histogram\": []},"));
+    }
+}
@@ -58,6 +58,198 @@ class OptionsTest {
         Assertions.assertEquals("pid is mandatory", exception.getMessage());
     }
 
+    @Test
+    void testThreadsAndLevelOptions() throws ParserException {
+        Options options = new Options(new String[]{"--threads", "4", "--level", "0", FAKE_PID});
+        Assertions.assertEquals(4, options.getThreads());
+        Assertions.assertEquals(JarWriter.STORED, options.getLevel());
+        // The options must survive the trip to the agent
+        Options agentOptions = new Options(options.getArgs());
+        Assertions.assertEquals(4, agentOptions.getThreads());
+        Assertions.assertEquals(JarWriter.STORED, agentOptions.getLevel());
+    }
+
+    @Test
+    void testPauseOptions() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--max-pause-ms", "5", "--batch-pause-ms", "10", FAKE_PID}).getArgs());
+        Assertions.assertEquals(5, options.getMaxPauseMillis());
+        Assertions.assertEquals(10, options.getBatchPauseMillis());
+    }
+
+    @Test
+    void testBaselineAndDedupOptions() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--baseline", "previous dump.jar", "--dedup", FAKE_PID}).getArgs());
+        Assertions.assertEquals("previous dump.jar", options.getBaseline());
+        Assertions.assertTrue(options.isDedup());
+    }
+
+    @Test
+    void testBudgetOptions() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--max-time-ms", "2000", "--max-cpu-ms", "500", "--max-heap-mb", "64", "--resume", "slice 1.jar", FAKE_PID}).getArgs());
+        Assertions.assertEquals(2000, options.getMaxTimeMillis());
+        Assertions.assertEquals(500, options.getMaxCpuMillis());
+        Assertions.assertEquals(64, options.getMaxHeapMegabytes());
+        Assertions.assertEquals("slice 1.jar", options.getResume());
+
+        options = new Options(new String[]{FAKE_PID});
+        Assertions.assertEquals(0, options.getMaxTimeMillis());
+        Assertions.assertEquals(0, options.getMaxCpuMillis());
+        Assertions.assertEquals(0, options.getMaxHeapMegabytes());
+        Assertions.assertNull(options.getResume());
+    }
+
+    @Test
+    void testMultiplePids() throws ParserException {
+        Options options = new Options(new String[]{"-d", "dump.jar", "--parallel", "8", "--attach-timeout-ms", "1000", "1", "2", "3"});
+        Assertions.assertEquals(List.of("1", "2", "3"), options.getPids());
+        Assertions.assertEquals("1", options.getPid());
+        Assertions.assertTrue(options.isMultiple());
+        Assertions.assertEquals(8, options.getParallel());
+        Assertions.assertEquals(1000, options.getAttachTimeoutMillis());
+        Assertions.assertEquals("dump-2.jar", options.getDestination("2"));
+
+        Options target = options.forTarget("2");
+        Assertions.assertEquals(List.of("2"), target.getPids());
+        Assertions.assertFalse(target.isMultiple());
+        Assertions.assertEquals("dump-2.jar", target.getDestination());
+        Assertions.assertEquals("dump-2.jar", target.getDestination("2"));
+    }
+
+    @Test
+    void testDestinationPidPlaceholder() throws ParserException {
+        Options options = new Options(new String[]{"-d", "target/dump-{pid}.classes", "--all", "Server", "1"});
+        Assertions.assertEquals("Server", options.getAll().pattern());
+        Assertions.assertEquals("target/dump-7.classes", options.getDestination("7"));
+        Assertions.assertNull(options.forTarget("7").getAll());
+
+        // A temp destination gets the pid of each JVM too
+        options = new Options(new String[]{"--all", "Server"});
+        Assertions.assertNull(options.getPid());
+        Assertions.assertTrue(options.getDestination("7").contains("dump-7-"));
+
+        options = new Options(new String[]{"-d", "dump.jar", FAKE_PID});
+        Assertions.assertFalse(options.isMultiple());
+        Assertions.assertEquals("dump.jar", options.getDestination(FAKE_PID));
+    }
+
+    @Test
+    void testRemoteOptions() throws ParserException {
+        Options options = new Options(new String[]{"--remote", FAKE_PID});
+        Assertions.assertTrue(options.isRemote());
+        Assertions.assertEquals(0, options.getConnectPort());
+        options.setConnect(4242, "cafe");
+        Assertions.assertTrue(String.join(" ", options.getArgs()).contains("--connect 4242:cafe"));
+
+        // The agent doesn't validate a destination it never writes
+        options = new Options(new Options(new String[]{"-d", "target/no-such-dir/dump.jar", "--connect", "4242:cafe", FAKE_PID}).getArgs());
+        Assertions.assertEquals(4242, options.getConnectPort());
+        Assertions.assertEquals("cafe", options.getConnectToken());
+        Assertions.assertEquals("target/no-such-dir/dump.jar", options.getDestination());
+    }
+
+    @Test
+    void testResidentOptions() throws ParserException {
+        Assertions.assertFalse(new Options(new String[]{FAKE_PID}).isResident());
+        Assertions.assertTrue(new Options(new Options(new String[]{"--resident", FAKE_PID}).getArgs()).isResident());
+
+        Options options = new Options(new Options(new String[]{"--command", "delta", FAKE_PID}).getArgs());
+        Assertions.assertTrue(options.isResident());
+        Assertions.assertEquals(Options.DELTA_COMMAND, options.getCommand());
+        Assertions.assertFalse(options.isShutdown());
+        Assertions.assertTrue(new Options(new String[]{"--command", "shutdown", FAKE_PID}).isShutdown());
+
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--command", "restart", FAKE_PID}));
+        Assertions.assertEquals("Invalid value [restart] for [--command], must be one of dump, delta or shutdown", exception.getMessage());
+    }
+
+    @Test
+    void testWatchOptions() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--watch", "--segment-mb", "4", "--max-segments", "10", FAKE_PID}).getArgs());
+        Assertions.assertTrue(options.isWatch());
+        Assertions.assertTrue(options.isResident());
+        Assertions.assertEquals(4, options.getSegmentMegabytes());
+        Assertions.assertEquals(10, options.getMaxSegments());
+
+        options = new Options(new String[]{FAKE_PID});
+        Assertions.assertFalse(options.isWatch());
+        Assertions.assertEquals(16, options.getSegmentMegabytes());
+        Assertions.assertEquals(0, options.getMaxSegments());
+
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--watch", "--remote", FAKE_PID}));
+        Assertions.assertEquals("[--watch] can't be used with [--remote] as segments are written inside the target", exception.getMessage());
+    }
+
+    @Test
+    void testIndexedOption() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--indexed", "-d", "target/dump.jar", FAKE_PID}).getArgs());
+        Assertions.assertTrue(options.isIndexed());
+        Assertions.assertEquals("target/dump" + IndexedDump.EXTENSION, options.getIndexedDestination());
+        Assertions.assertFalse(new Options(new String[]{FAKE_PID}).isIndexed());
+
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--indexed", "--remote", FAKE_PID}));
+        Assertions.assertEquals("[--indexed] can't be used with [--remote] as the indexed dump is written inside the target", exception.getMessage());
+    }
+
+    @Test
+    void testOffHeapOption() throws ParserException {
+        Assertions.assertEquals(0, new Options(new String[]{FAKE_PID}).getOffHeapMegabytes());
+        Assertions.assertEquals(256, new Options(new Options(new String[]{"--off-heap-mb", "256", FAKE_PID}).getArgs()).getOffHeapMegabytes());
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--off-heap-mb", "0", FAKE_PID}));
+        Assertions.assertEquals("Invalid value [0] for [--off-heap-mb], must be between 1 and 1048576", exception.getMessage());
+    }
+
+    @Test
+    void testSignatureOptions() throws ParserException {
+        Options options = new Options(new Options(new String[]{"--signatures", "iocs.txt", "--matches-only", FAKE_PID}).getArgs());
+        Assertions.assertEquals("iocs.txt", options.getSignatures());
+        Assertions.assertTrue(options.isMatchesOnly());
+
+        options = new Options(new String[]{FAKE_PID});
+        Assertions.assertNull(options.getSignatures());
+        Assertions.assertFalse(options.isMatchesOnly());
+
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--matches-only", FAKE_PID}));
+        Assertions.assertEquals("[--matches-only] requires [--signatures]", exception.getMessage());
+    }
+
+    @Test
+    void testVerifyOption() throws ParserException {
+        Assertions.assertFalse(new Options(new String[]{FAKE_PID}).isVerify());
+        Assertions.assertTrue(new Options(new Options(new String[]{"--verify", FAKE_PID}).getArgs()).isVerify());
+    }
+
+    @Test
+    void testLoaderOptions() throws ParserException {
+        Assertions.assertNull(new Options(new String[]{FAKE_PID}).getLoaderSelector());
+        String[] args = new Options(new String[]{"--loader", "app", "--loader-class", ".*Webapp.*", "--loader-parent", "platform", FAKE_PID}).getArgs();
+        Assertions.assertTrue(String.join(" ", args).contains("--loader app --loader-class .*Webapp.* --loader-parent platform"));
+        Assertions.assertNotNull(new Options(args).getLoaderSelector());
+        Assertions.assertNotNull(new Options(new String[]{"--loader-parent", "app", FAKE_PID}).getLoaderSelector());
+    }
+
+    @Test
+    void testInventoryOption() throws ParserException {
+        Assertions.assertFalse(new Options(new String[]{FAKE_PID}).isInventory());
+        Assertions.assertTrue(new Options(new Options(new String[]{"--inventory", "-s", FAKE_PID}).getArgs()).isInventory());
+
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--inventory", "--verify", FAKE_PID}));
+        Assertions.assertEquals("[--inventory] can't be used with [--verify] as no classes are dumped", exception.getMessage());
+        exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--inventory", "--stream", FAKE_PID}));
+        Assertions.assertEquals("[--inventory] can't be used with [--stream] as no classes are dumped", exception.getMessage());
+    }
+
+    @Test
+    void testJfrOption() throws ParserException {
+        Assertions.assertFalse(new Options(new String[]{FAKE_PID}).isJfr());
+        Assertions.assertTrue(new Options(new Options(new String[]{"--jfr", FAKE_PID}).getArgs()).isJfr());
+    }
+
+    @Test
+    void testInvalidThreadsThrowsParserException() {
+        Exception exception = assertThrows(ParserException.class, () -> new Options(new String[]{"--threads", "zero", FAKE_PID}));
+        Assertions.assertEquals("Invalid value [zero] for [--threads], must be between 1 and 256", exception.getMessage());
+    }
+
     @Test
     void testTheFullMonty() throws ParserException {
         String[] args = new String[]{
@@ -0,0 +1,96 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+class OriginVerifierTest {
+    private static final String NATIVE_CLASS_NAME = Utils.toNativeClassName(OriginVerifierTest.class.getName());
+
+    private static byte[] readClassFile(Class<?> clazz) throws IOException {
+        return clazz.getResourceAsStream(clazz.getSimpleName() + ".class").readAllBytes();
+    }
+
+    private static byte[] replace(byte[] bytecode, String target, String replacement) {
+        byte[] replaced = bytecode.clone();
+        byte[] bytes = Utils.fromUtf8String(target);
+        for (int i = 0; i <= replaced.length - bytes.length; i++) {
+            if (Arrays.equals(replaced, i, i + bytes.length, bytes, 0, bytes.length)) {
+                System.arraycopy(Utils.fromUtf8String(replacement), 0, replaced, i, bytes.length);
+                return replaced;
+            }
+        }
+        throw new AssertionError(target + " not found");
+    }
+
+    @Test
+    void testDirectoryOrigin() throws IOException, ExecutionException, InterruptedException {
+        ProtectionDomain protectionDomain = OriginVerifierTest.class.getProtectionDomain();
+        byte[] bytecode = readClassFile(OriginVerifierTest.class);
+        try (OriginVerifier verifier = new OriginVerifier(2)) {
+            Assertions.assertEquals(OriginVerifier.Verdict.UNCHANGED, verifier.verify(protectionDomain, NATIVE_CLASS_NAME, bytecode).get());
+
+            // Same length, so only the content of a string constant differs
+            byte[] modified = replace(bytecode, "original", "modified");
+            Assertions.assertEquals(OriginVerifier.Verdict.MODIFIED, verifier.verify(protectionDomain, NATIVE_CLASS_NAME, modified).get());
+
+            Assertions.assertEquals(OriginVerifier.Verdict.MISSING, verifier.verify(protectionDomain, "io/github/benjaminsoelberg/jft/NoSuchClass", bytecode).get());
+            Assertions.assertEquals(OriginVerifier.Verdict.FAILED, verifier.verify(protectionDomain, NATIVE_CLASS_NAME, new byte[]{1, 2, 3}).get());
+            Assertions.assertEquals(1, verifier.getOrigins());
+        }
+    }
+
+    @Test
+    void testJarOrigin() throws IOException, ExecutionException, InterruptedException {
+        ProtectionDomain protectionDomain = Test.class.getProtectionDomain();
+        Assertions.assertTrue(OriginVerifier.getLocation(protectionDomain).getPath().endsWith(".jar"));
+        try (OriginVerifier verifier = new OriginVerifier(1)) {
+            Assertions.assertEquals(OriginVerifier.Verdict.UNCHANGED, verifier.verify(protectionDomain, Utils.toNativeClassName(Test.class.getName()), readClassFile(Test.class)).get());
+            Assertions.assertEquals(OriginVerifier.Verdict.MISSING, verifier.verify(protectionDomain, NATIVE_CLASS_NAME, readClassFile(OriginVerifierTest.class)).get());
+            Assertions.assertEquals(1, verifier.getOrigins());
+        }
+    }
+
+    @Test
+    void testMultiReleaseJarOrigin() throws IOException, ExecutionException, InterruptedException {
+        File file = File.createTempFile("multi-release", ".jar");
+        file.deleteOnExit();
+        byte[] versioned = readClassFile(OriginVerifierTest.class);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            // The base entry is for older versions of Java, the class loader reads the versioned entry
+            out.putNextEntry(new JarEntry(NATIVE_CLASS_NAME + ".class"));
+            out.write(readClassFile(ClassFileNormalizerTest.class));
+            out.putNextEntry(new JarEntry("META-INF/versions/9/" + NATIVE_CLASS_NAME + ".class"));
+            out.write(versioned);
+        }
+
+        ProtectionDomain protectionDomain = new ProtectionDomain(new CodeSource(file.toURI().toURL(), (Certificate[]) null), null);
+        try (OriginVerifier verifier = new OriginVerifier(1)) {
+            Assertions.assertEquals(OriginVerifier.Verdict.UNCHANGED, verifier.verify(protectionDomain, NATIVE_CLASS_NAME, versioned).get());
+        }
+    }
+
+    @Test
+    void testOriginlessClasses() throws IOException, ExecutionException, InterruptedException {
+        try (OriginVerifier verifier = new OriginVerifier(1)) {
+            Assertions.assertNull(OriginVerifier.getLocation(String.class.getProtectionDomain()));
+            Assertions.assertEquals(OriginVerifier.Verdict.ORIGINLESS, verifier.verify(String.class.getProtectionDomain(), "java/lang/String", new byte[0]).get());
+            Assertions.assertEquals(0, verifier.getOrigins());
+        }
+    }
+}
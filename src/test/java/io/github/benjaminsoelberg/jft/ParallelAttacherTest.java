@@ -0,0 +1,86 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ParallelAttacherTest {
+
+    @Test
+    void testResultsKeepTheOrderOfTheTargets() throws Exception {
+        ParallelAttacher attacher = new ParallelAttacher(target -> {
+            if (target.getPid().equals("2")) {
+                throw new IOException("No such process");
+            }
+            Thread.sleep(Long.parseLong(target.getPid()));
+        }, 4, 0);
+        List<ParallelAttacher.Result> results = attacher.run(targets("1", "2", "3", "4", "5"));
+
+        Assertions.assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(String.valueOf(i + 1), results.get(i).getTarget().getPid());
+        }
+        Assertions.assertEquals(ParallelAttacher.Status.DONE, results.get(0).getStatus());
+        Assertions.assertEquals(ParallelAttacher.Status.FAILED, results.get(1).getStatus());
+        Assertions.assertEquals("No such process", results.get(1).getError().getMessage());
+        Assertions.assertNull(results.get(0).getError());
+
+        String summary = ParallelAttacher.summarize(results);
+        Assertions.assertTrue(summary.startsWith("Dumped 4 of 5 JVMs"));
+        Assertions.assertTrue(summary.contains("java.io.IOException: No such process"));
+    }
+
+    @Test
+    void testConcurrencyIsLimited() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ParallelAttacher attacher = new ParallelAttacher(target -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+        }, 2, 0);
+        List<ParallelAttacher.Result> results = attacher.run(targets("1", "2", "3", "4", "5", "6"));
+
+        Assertions.assertTrue(results.stream().allMatch(result -> result.getStatus() == ParallelAttacher.Status.DONE));
+        Assertions.assertTrue(maxRunning.get() <= 2, "Too many at once: " + maxRunning.get());
+    }
+
+    @Test
+    void testHungTargetTimesOutWithoutHoldingUpTheRest() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        ParallelAttacher attacher = new ParallelAttacher(target -> {
+            if (target.getPid().equals("1")) {
+                // Ignores interrupts like a blocked attach would
+                while (never.getCount() > 0) {
+                    try {
+                        never.await();
+                    } catch (InterruptedException ignored) {
+                        // Keep hanging
+                    }
+                }
+            }
+        }, 1, 50);
+        List<ParallelAttacher.Result> results = attacher.run(targets("1", "2", "3"));
+        never.countDown();
+
+        Assertions.assertEquals(ParallelAttacher.Status.TIMED_OUT, results.get(0).getStatus());
+        Assertions.assertTrue(results.get(0).getElapsedNanos() >= 50_000_000L);
+        Assertions.assertEquals(ParallelAttacher.Status.DONE, results.get(1).getStatus());
+        Assertions.assertEquals(ParallelAttacher.Status.DONE, results.get(2).getStatus());
+        Assertions.assertTrue(ParallelAttacher.summarize(results).contains("timed out"));
+    }
+
+    private List<Options> targets(String... pids) throws ParserException {
+        Options options = new Options(pids);
+        List<Options> targets = new ArrayList<>();
+        for (String pid : pids) {
+            targets.add(options.forTarget(pid));
+        }
+        return targets;
+    }
+}
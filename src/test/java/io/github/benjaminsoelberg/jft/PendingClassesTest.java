@@ -0,0 +1,40 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PendingClassesTest {
+
+    @Test
+    void testBatchesAreSlicedInOrder() {
+        PendingClasses classes = new PendingClasses(new Class<?>[]{String.class, Integer.class, Long.class});
+        Assertions.assertTrue(classes.hasNextBatch());
+        Assertions.assertArrayEquals(new Class<?>[]{String.class, Integer.class}, classes.nextBatch(2));
+        Assertions.assertTrue(classes.hasNextBatch());
+        Assertions.assertArrayEquals(new Class<?>[]{Long.class}, classes.nextBatch(2));
+        Assertions.assertFalse(classes.hasNextBatch());
+        // Slicing doesn't dump anything
+        Assertions.assertEquals(3, classes.size());
+        Assertions.assertEquals(3, classes.total());
+    }
+
+    @Test
+    void testClassesAreOnlyRemovedOnce() {
+        PendingClasses classes = new PendingClasses(new Class<?>[]{String.class, Integer.class});
+        Assertions.assertTrue(classes.remove(String.class));
+        Assertions.assertFalse(classes.remove(String.class));
+        Assertions.assertFalse(classes.remove(Long.class));
+        Assertions.assertEquals(1, classes.size());
+        Assertions.assertTrue(classes.remove(Integer.class));
+        Assertions.assertTrue(classes.isEmpty());
+        Assertions.assertEquals(2, classes.total());
+    }
+
+    @Test
+    void testPendingClassesKeepTheirOrder() {
+        PendingClasses classes = new PendingClasses(new Class<?>[]{String.class, Integer.class, Long.class});
+        classes.nextBatch(2);
+        classes.remove(Integer.class);
+        Assertions.assertArrayEquals(new Class<?>[]{String.class, Long.class}, classes.getPending());
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class ReportTest {
+
+    @Test
+    void testWriteTo() throws IOException {
+        Report report = new Report("Header%n", false, false);
+        report.println("Plain");
+        report.println("%s has %d bytes", "Ålæ", 42);
+        report.dump(new IllegalStateException("boom"));
+        report.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.writeTo(out);
+        String[] lines = Utils.toUtf8String(out.toByteArray()).split(System.lineSeparator());
+        Assertions.assertEquals("Header", lines[0]);
+        Assertions.assertEquals("", lines[1]);
+        Assertions.assertEquals("Plain", lines[2]);
+        Assertions.assertEquals("Ålæ has 42 bytes", lines[3]);
+        Assertions.assertEquals("java.lang.IllegalStateException: boom", lines[4]);
+    }
+
+    @Test
+    void testPlainLinesAreNotFormatted() throws IOException {
+        Report report = new Report("Header", false, false);
+        // Like a class loader named after a URL encoded path
+        report.println("[webapp%20v1]");
+        report.println("100%%");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.writeTo(out);
+        Assertions.assertTrue(Utils.toUtf8String(out.toByteArray()).endsWith("[webapp%20v1]" + System.lineSeparator() + "100%%"));
+    }
+
+    @Test
+    void testLinesAreFormattedWhenWritten() throws IOException {
+        Report report = new Report("Header", false, false);
+        List<String> names = new ArrayList<>();
+        report.println("%s", names);
+        names.add("late");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.writeTo(out);
+        Assertions.assertTrue(Utils.toUtf8String(out.toByteArray()).endsWith("[late]"));
+    }
+}
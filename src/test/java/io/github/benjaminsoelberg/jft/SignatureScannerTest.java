@@ -0,0 +1,86 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SignatureScannerTest {
+
+    private static SignatureScanner compile(String... signatures) {
+        List<String> names = List.of(signatures);
+        return new SignatureScanner(names, names.stream().map(Utils::fromUtf8String).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testOverlappingSignatures() {
+        SignatureScanner scanner = compile("he", "she", "his", "hers", "unused");
+        Assertions.assertArrayEquals(new int[]{0, 1, 3}, scanner.scan(Utils.fromUtf8String("ushers")));
+        Assertions.assertArrayEquals(new int[]{2}, scanner.scan(Utils.fromUtf8String("this")));
+        Assertions.assertArrayEquals(new int[0], scanner.scan(Utils.fromUtf8String("nothing to see")));
+        Assertions.assertArrayEquals(new int[0], scanner.scan(new byte[0]));
+        // Root, h, he, her, hers, hi, his, s, sh, she, u, un, unu, unus, unuse, unused
+        Assertions.assertEquals(16, scanner.getStates());
+    }
+
+    @Test
+    void testSignatureInsideLongerMismatch() {
+        SignatureScanner scanner = compile("abcd", "bc");
+        Assertions.assertArrayEquals(new int[]{1}, scanner.scan(Utils.fromUtf8String("xabcx")));
+        Assertions.assertArrayEquals(new int[]{0, 1}, scanner.scan(Utils.fromUtf8String("aabcd")));
+    }
+
+    @Test
+    void testWithoutTransitionTable() {
+        List<String> names = List.of("he", "she", "his", "hers", "abcd", "bc", "unused");
+        List<byte[]> patterns = names.stream().map(Utils::fromUtf8String).collect(Collectors.toList());
+        SignatureScanner table = new SignatureScanner(names, patterns);
+        SignatureScanner links = new SignatureScanner(names, patterns, 0);
+        Assertions.assertTrue(table.isTable());
+        Assertions.assertFalse(links.isTable());
+        Assertions.assertEquals(table.getStates(), links.getStates());
+        for (String text : List.of("ushers", "this", "xabcx", "aabcd", "hhishersheabcbcd", "nothing to see", "")) {
+            byte[] bytes = Utils.fromUtf8String(text);
+            Assertions.assertArrayEquals(table.scan(bytes), links.scan(bytes), text);
+        }
+        Assertions.assertArrayEquals(new int[]{0, 1, 3}, links.scan(Utils.fromUtf8String("ushers")));
+    }
+
+    @Test
+    void testScanClassFile() throws IOException {
+        byte[] bytecode = SignatureScannerTest.class.getResourceAsStream("SignatureScannerTest.class").readAllBytes();
+        // Joined at runtime, as a constant would end up in the class file
+        SignatureScanner scanner = compile("java/nio/file/Files", String.join("/", "http:", "", "example.invalid"), "testScanClassFile");
+        Assertions.assertArrayEquals(new int[]{0, 2}, scanner.scan(bytecode));
+    }
+
+    @Test
+    void testLoad() throws IOException {
+        File file = File.createTempFile("signatures", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), List.of("# IOCs", "", "evil.example", "hex:CAFE BABE", "hex:00ff"));
+        SignatureScanner scanner = SignatureScanner.load(file);
+        Assertions.assertEquals(3, scanner.size());
+        Assertions.assertEquals("hex:CAFE BABE", scanner.getName(1));
+        Assertions.assertArrayEquals(new int[]{1, 2}, scanner.scan(new byte[]{0, (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, (byte) 0xFF}));
+    }
+
+    @Test
+    void testLoadInvalidThrowsIOException() throws IOException {
+        File file = File.createTempFile("signatures", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), List.of("hex:CAF"));
+        Exception exception = assertThrows(IOException.class, () -> SignatureScanner.load(file));
+        Assertions.assertEquals("Invalid signature line [hex:CAF]", exception.getMessage());
+
+        Files.write(file.toPath(), List.of("# Nothing but comments"));
+        exception = assertThrows(IOException.class, () -> SignatureScanner.load(file));
+        Assertions.assertEquals("No signatures in " + file, exception.getMessage());
+    }
+}
@@ -23,4 +23,11 @@ class UtilsTest {
         Assertions.assertEquals("\tat io.github.benjaminsoelberg.jft.UtilsTest.testExceptionToString(UtilsTest.java:", elements[1].substring(0, elements[1].length() - 3));
         Assertions.assertTrue(elements[elements.length - 1].startsWith("\tat "));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testClassLoaderPath() {
+        Assertions.assertEquals("[bootloader]/", Utils.toClassLoaderPath(null));
+        Assertions.assertEquals("[bootloader]/[platform]/", Utils.toClassLoaderPath(ClassLoader.getPlatformClassLoader()));
+        Assertions.assertEquals("[bootloader]/[platform]/[app]/", Utils.toClassLoaderPath(ClassLoader.getSystemClassLoader()));
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.benjaminsoelberg.jft;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.jar.JarFile;
+
+class WatcherTest {
+
+    private static final byte[] BYTECODE = Utils.fromUtf8String("Not really bytecode");
+
+    @Test
+    void testDefinedAndRedefinedClassesAreCaptured() throws Exception {
+        File dir = Files.createTempDirectory("watch").toFile();
+        Watcher watcher = new Watcher(createInstrumentation(), options(dir, "-f", "com\\.example\\..*"));
+        watcher.start();
+        watcher.transform(null, null, "com/example/Injected", null, null, BYTECODE);
+        watcher.transform(null, null, "org/example/Ignored", null, null, BYTECODE);
+        // Captured again, which starts a new segment
+        watcher.transform(null, null, "com/example/Injected", Object.class, null, BYTECODE);
+        watcher.close();
+
+        Assertions.assertEquals(2, watcher.getCaptured());
+        Assertions.assertEquals(2, watcher.getSegments());
+        try (JarFile jar = new JarFile(watcher.getSegmentFile(1))) {
+            Assertions.assertArrayEquals(BYTECODE, jar.getInputStream(jar.getEntry("[bootloader]/com/example/Injected.class")).readAllBytes());
+            Assertions.assertNull(jar.getEntry("[bootloader]/org/example/Ignored.class"));
+            String log = Utils.toUtf8String(jar.getInputStream(jar.getEntry(Watcher.LOG_ENTRY_NAME)).readAllBytes());
+            Assertions.assertTrue(log.endsWith("\tdefine\t[bootloader]/com/example/Injected.class\t" + BYTECODE.length + "\n"));
+        }
+        try (JarFile jar = new JarFile(watcher.getSegmentFile(2))) {
+            String log = Utils.toUtf8String(jar.getInputStream(jar.getEntry(Watcher.LOG_ENTRY_NAME)).readAllBytes());
+            Assertions.assertTrue(log.contains("\tredefine\t[bootloader]/com/example/Injected.class\t"));
+        }
+    }
+
+    @Test
+    void testClassLoaderOptions() throws Exception {
+        File dir = Files.createTempDirectory("watch").toFile();
+        Watcher watcher = new Watcher(createInstrumentation(), options(dir, "-s"));
+        watcher.start();
+        watcher.transform(null, null, "com/example/Boot", null, null, BYTECODE);
+        watcher.transform(null, ClassLoader.getSystemClassLoader(), "com/example/App", null, null, BYTECODE);
+        // The agent itself is never captured
+        watcher.transform(null, Watcher.class.getClassLoader(), "io/github/benjaminsoelberg/jft/Agent", null, null, BYTECODE);
+        watcher.close();
+
+        Assertions.assertEquals(1, watcher.getCaptured());
+        try (JarFile jar = new JarFile(watcher.getSegmentFile(1))) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/[platform]/[app]/com/example/App.class"));
+        }
+    }
+
+    @Test
+    void testSegmentsRotateBySizeAndOldestAreDeleted() throws Exception {
+        File dir = Files.createTempDirectory("watch").toFile();
+        Watcher watcher = new Watcher(createInstrumentation(), options(dir, "--segment-mb", "1", "--max-segments", "2"));
+        watcher.start();
+        byte[] large = new byte[600 * 1024];
+        for (int i = 0; i < 5; i++) {
+            watcher.transform(null, null, "com/example/Large" + i, null, null, large);
+        }
+        watcher.close();
+
+        Assertions.assertEquals(5, watcher.getCaptured());
+        Assertions.assertEquals(3, watcher.getSegments());
+        Assertions.assertFalse(watcher.getSegmentFile(1).exists());
+        try (JarFile jar = new JarFile(watcher.getSegmentFile(2))) {
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/com/example/Large2.class"));
+            Assertions.assertNotNull(jar.getEntry("[bootloader]/com/example/Large3.class"));
+        }
+        Assertions.assertTrue(watcher.getSegmentFile(3).exists());
+    }
+
+    @Test
+    void testClassesAreDroppedWhenTheWriterFallsBehind() throws Exception {
+        File dir = Files.createTempDirectory("watch").toFile();
+        // The writer isn't started until the queue is full
+        Watcher watcher = new Watcher(createInstrumentation(), options(dir), 2, 2L * BYTECODE.length);
+        for (int i = 0; i < 5; i++) {
+            watcher.transform(null, null, "com/example/Class" + i, null, null, BYTECODE);
+        }
+        Assertions.assertEquals(3, watcher.getDropped());
+        watcher.start();
+        watcher.close();
+        Assertions.assertEquals(2, watcher.getCaptured());
+    }
+
+    private Options options(File dir, String... args) throws ParserException {
+        String[] all = new String[args.length + 3];
+        all[0] = "-d";
+        all[1] = new File(dir, "dump.jar").getPath();
+        System.arraycopy(args, 0, all, 2, args.length);
+        all[all.length - 1] = "12345";
+        return new Options(all);
+    }
+
+    private Instrumentation createInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "addTransformer":
+                case "removeTransformer":
+                    return method.getReturnType() == boolean.class ? true : null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}